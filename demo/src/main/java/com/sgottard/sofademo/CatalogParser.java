@@ -0,0 +1,253 @@
+package com.sgottard.sofademo;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+
+/**
+ * Parses the video catalogue on a worker thread and hands each category over to the main
+ * thread as soon as it has been read. The catalogue is streamed with a {@link JsonReader},
+ * so neither the whole JSON tree nor the whole file is ever held in memory, and the first
+ * category shows up while the rest of the file is still being read.
+ * <p>
+ * Once parsed, the catalogue is saved as a {@link CatalogSnapshot}, which the next launches
+ * map instead of parsing the JSON again.
+ */
+class CatalogParser implements Runnable {
+
+    private static final String BASE_CONTENT_URL = "http://commondatastorage.googleapis.com/android-tv/Sample%20videos/";
+
+    /**
+     * Receives the parsed catalogue, on the main thread.
+     */
+    interface Listener {
+        /**
+         * Called for each category, in the order of the catalogue.
+         */
+        void onCategoryParsed(String category, Video[] videos);
+
+        /**
+         * Called after the last category.
+         */
+        void onCatalogParsed();
+
+        /**
+         * Called if the catalogue could not be read, after the categories parsed so far.
+         */
+        void onCatalogFailed(IOException e);
+    }
+
+    private final AssetManager assets;
+    private final String assetName;
+    private final File snapshotFile;
+    private final long catalogStamp;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+
+    /**
+     * @param snapshotFile Where the snapshot of the catalogue is kept.
+     * @param catalogStamp Changes whenever the catalogue may have changed, so that the
+     *                     snapshot of a previous catalogue is not used.
+     */
+    CatalogParser(AssetManager assets, String assetName, File snapshotFile, long catalogStamp,
+            Listener listener) {
+        this.assets = assets;
+        this.assetName = assetName;
+        this.snapshotFile = snapshotFile;
+        this.catalogStamp = catalogStamp;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts parsing on a new background thread.
+     */
+    void start() {
+        new Thread(this, "CatalogParser").start();
+    }
+
+    /**
+     * Stops parsing, the listener is not called anymore.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        if (readSnapshot()) {
+            return;
+        }
+        ArrayList<String> categories = new ArrayList<>();
+        ArrayList<Video[]> videos = new ArrayList<>();
+        boolean parsed = false;
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(assets.open(assetName), "UTF-8")));
+            reader.beginObject();
+            while (reader.hasNext() && !cancelled) {
+                if ("googlevideos".equals(reader.nextName())) {
+                    reader.beginArray();
+                    while (reader.hasNext() && !cancelled) {
+                        readCategory(reader, categories, videos);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            parsed = true;
+            postCatalogParsed();
+        } catch (final IOException e) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onCatalogFailed(e);
+                }
+            });
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (parsed && !cancelled) {
+            writeSnapshot(categories, videos);
+        }
+    }
+
+    private boolean readSnapshot() {
+        CatalogSnapshot snapshot;
+        try {
+            snapshot = CatalogSnapshot.open(snapshotFile, catalogStamp);
+        } catch (IOException e) {
+            e.printStackTrace();
+            snapshot = null;
+        }
+        if (snapshot == null) {
+            return false;
+        }
+        for (int i = 0, count = snapshot.getCategoryCount(); i < count && !cancelled; i++) {
+            postCategory(snapshot.getCategoryName(i), snapshot.getVideos(i));
+        }
+        postCatalogParsed();
+        return true;
+    }
+
+    private void writeSnapshot(ArrayList<String> categories, ArrayList<Video[]> videos) {
+        try {
+            CatalogSnapshot.write(snapshotFile, catalogStamp, categories, videos);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readCategory(JsonReader reader, ArrayList<String> categories,
+            ArrayList<Video[]> videos) throws IOException {
+        String category = null;
+        ArrayList<Video> categoryVideoList = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("category".equals(name)) {
+                category = reader.nextString();
+            } else if ("videos".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    categoryVideoList.add(readVideo(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Video[] categoryVideos = categoryVideoList.toArray(new Video[categoryVideoList.size()]);
+        for (Video video : categoryVideos) {
+            // the category may come after the videos in the object
+            video.category = category;
+            video.card = BASE_CONTENT_URL + encode(category) + "/" + encode(video.title) + "/" + video.card;
+        }
+        categories.add(category);
+        videos.add(categoryVideos);
+        postCategory(category, categoryVideos);
+    }
+
+    private void postCategory(final String category, final Video[] videos) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onCategoryParsed(category, videos);
+            }
+        });
+    }
+
+    private void postCatalogParsed() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onCatalogParsed();
+            }
+        });
+    }
+
+    private static Video readVideo(JsonReader reader) throws IOException {
+        Video video = new Video();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("title".equals(name)) {
+                video.title = reader.nextString();
+            } else if ("studio".equals(name)) {
+                video.studio = reader.nextString();
+            } else if ("card".equals(name)) {
+                video.card = reader.nextString();
+            } else if ("background".equals(name)) {
+                video.background = reader.nextString();
+            } else if ("sources".equals(name)) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    video.source = reader.nextString();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return video;
+    }
+
+    private static String encode(String text) throws UnsupportedEncodingException {
+        return URLEncoder.encode(text, "UTF-8").replace("+", "%20");
+    }
+
+    private void post(final Runnable runnable) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,241 @@
+package com.sgottard.sofademo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A compact binary copy of the parsed catalogue, written once the JSON catalogue has been
+ * parsed and memory-mapped on the next launches instead of parsing it again. Opening the
+ * snapshot only reads its tables: the strings of a video stay in the mapped file until
+ * its card gets bound, see {@link Video}.
+ * <p>
+ * The file is big endian and made of a header (magic, version, stamp of the catalogue,
+ * number of categories), the category table (name, first video, number of videos), the
+ * video table (offset and length of each string field) and the UTF-8 bytes of the strings.
+ * A missing string has a length of -1.
+ */
+final class CatalogSnapshot {
+
+    static final int FIELD_SOURCE = 0;
+    static final int FIELD_TITLE = 1;
+    static final int FIELD_BACKGROUND = 2;
+    static final int FIELD_CARD = 3;
+    static final int FIELD_STUDIO = 4;
+    private static final int FIELD_COUNT = 5;
+
+    private static final int MAGIC = 0x534f4641; // "SOFA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int CATEGORY_ENTRY_SIZE = 4 * 4;
+    private static final int VIDEO_ENTRY_SIZE = FIELD_COUNT * 2 * 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int categoryCount;
+    private final int videoTableOffset;
+
+    private CatalogSnapshot(ByteBuffer buffer, int categoryCount, int videoTableOffset) {
+        this.buffer = buffer;
+        this.categoryCount = categoryCount;
+        this.videoTableOffset = videoTableOffset;
+    }
+
+    /**
+     * Maps the snapshot and checks that it is consistent.
+     *
+     * @param stamp Identifies the catalogue the snapshot must have been written from.
+     * @return null if there is no snapshot, or if it was written from another catalogue.
+     * @throws IOException if the snapshot cannot be read or is corrupted.
+     */
+    static CatalogSnapshot open(File file, long stamp) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        int size = buffer.limit();
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a catalog snapshot: " + file);
+        }
+        if (buffer.getLong(8) != stamp) {
+            return null;
+        }
+        int categoryCount = buffer.getInt(16);
+        long videoTableOffset = HEADER_SIZE + (long) categoryCount * CATEGORY_ENTRY_SIZE;
+        if (categoryCount < 0 || videoTableOffset > size) {
+            throw new IOException("Corrupted catalog snapshot: " + file);
+        }
+        CatalogSnapshot snapshot = new CatalogSnapshot(buffer, categoryCount, (int) videoTableOffset);
+        snapshot.checkTables();
+        return snapshot;
+    }
+
+    /**
+     * Writes a snapshot of the given categories, replacing the existing one only once it is
+     * complete.
+     */
+    static void write(File file, long stamp, List<String> categories, List<Video[]> videos)
+            throws IOException {
+        int videoCount = 0;
+        for (Video[] categoryVideos : videos) {
+            videoCount += categoryVideos.length;
+        }
+        // strings are encoded first, their offsets follow the tables
+        byte[][] names = new byte[categories.size()][];
+        byte[][] fields = new byte[videoCount * FIELD_COUNT][];
+        int offset = HEADER_SIZE + categories.size() * CATEGORY_ENTRY_SIZE + videoCount * VIDEO_ENTRY_SIZE;
+        int stringsOffset = offset;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = encode(categories.get(i));
+            offset += names[i].length;
+        }
+        int index = 0;
+        for (Video[] categoryVideos : videos) {
+            for (Video video : categoryVideos) {
+                for (int field = 0; field < FIELD_COUNT; field++) {
+                    byte[] bytes = encode(video.getField(field));
+                    fields[index++] = bytes;
+                    if (bytes != null) {
+                        offset += bytes.length;
+                    }
+                }
+            }
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(names.length);
+            offset = stringsOffset;
+            int firstVideo = 0;
+            for (int i = 0; i < names.length; i++) {
+                offset = writeString(out, names[i], offset);
+                out.writeInt(firstVideo);
+                out.writeInt(videos.get(i).length);
+                firstVideo += videos.get(i).length;
+            }
+            for (byte[] bytes : fields) {
+                offset = writeString(out, bytes, offset);
+            }
+            for (byte[] bytes : names) {
+                out.write(bytes);
+            }
+            for (byte[] bytes : fields) {
+                if (bytes != null) {
+                    out.write(bytes);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    int getCategoryCount() {
+        return categoryCount;
+    }
+
+    String getCategoryName(int category) {
+        int entry = HEADER_SIZE + category * CATEGORY_ENTRY_SIZE;
+        return decode(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    /**
+     * Returns the videos of a category, whose strings are decoded from the snapshot when
+     * first needed.
+     */
+    Video[] getVideos(int category) {
+        int entry = HEADER_SIZE + category * CATEGORY_ENTRY_SIZE;
+        String name = getCategoryName(category);
+        int firstVideo = buffer.getInt(entry + 8);
+        Video[] videos = new Video[buffer.getInt(entry + 12)];
+        for (int i = 0; i < videos.length; i++) {
+            videos[i] = new Video(this, firstVideo + i);
+            videos[i].category = name;
+        }
+        return videos;
+    }
+
+    /**
+     * Decodes a string field of a video, one of the FIELD constants.
+     */
+    String getString(int video, int field) {
+        int entry = videoTableOffset + video * VIDEO_ENTRY_SIZE + field * 8;
+        return decode(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    private void checkTables() throws IOException {
+        int size = buffer.limit();
+        int videoCount = 0;
+        for (int i = 0; i < categoryCount; i++) {
+            int entry = HEADER_SIZE + i * CATEGORY_ENTRY_SIZE;
+            checkString(buffer.getInt(entry), buffer.getInt(entry + 4));
+            int count = buffer.getInt(entry + 12);
+            if (buffer.getInt(entry + 8) != videoCount || count < 0) {
+                throw new IOException("Corrupted catalog snapshot");
+            }
+            videoCount += count;
+        }
+        if (videoTableOffset + (long) videoCount * VIDEO_ENTRY_SIZE > size) {
+            throw new IOException("Corrupted catalog snapshot");
+        }
+        for (int entry = videoTableOffset, end = entry + videoCount * VIDEO_ENTRY_SIZE; entry < end; entry += 8) {
+            checkString(buffer.getInt(entry), buffer.getInt(entry + 4));
+        }
+    }
+
+    private void checkString(int offset, int length) throws IOException {
+        if (length != -1 && (offset < 0 || length < 0 || (long) offset + length > buffer.limit())) {
+            throw new IOException("Corrupted catalog snapshot");
+        }
+    }
+
+    private String decode(int offset, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        // the position of the shared buffer is only used here
+        synchronized (buffer) {
+            buffer.position(offset);
+            buffer.get(bytes);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static byte[] encode(String string) {
+        return string != null ? string.getBytes(UTF_8) : null;
+    }
+
+    private static int writeString(DataOutputStream out, byte[] bytes, int offset) throws IOException {
+        if (bytes == null) {
+            out.writeInt(0);
+            out.writeInt(-1);
+            return offset;
+        }
+        out.writeInt(offset);
+        out.writeInt(bytes.length);
+        return offset + bytes.length;
+    }
+}
@@ -2,6 +2,7 @@ package com.sgottard.sofademo;
 
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.support.v17.leanback.widget.ArrayObjectAdapter;
 import android.support.v17.leanback.widget.HeaderItem;
@@ -19,21 +20,16 @@ import android.view.ViewGroup;
 import android.widget.Toast;
 
 import com.bumptech.glide.Glide;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.annotations.SerializedName;
+import com.sgottard.sofa.AsyncViewInflater;
 import com.sgottard.sofa.BrowseFragment;
+import com.sgottard.sofa.ContentFragment;
+import com.sgottard.sofa.ContentFragmentProvider;
 import com.sgottard.sofa.RowsFragment;
 import com.sgottard.sofa.support.BrowseSupportFragment;
 import com.sgottard.sofa.support.RowsSupportFragment;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -43,7 +39,9 @@ import java.util.Arrays;
 public class DemoActivity extends FragmentActivity {
 
     private static final String JSON_URL = "http://commondatastorage.googleapis.com/android-tv/android_tv_videos.json";
-    private static final String BASE_CONTENT_URL = "http://commondatastorage.googleapis.com/android-tv/Sample%20videos/";
+    private static final String CATALOG_ASSET = "android_tv_videos.json";
+    private static final String CATALOG_SNAPSHOT = "catalog.snapshot";
+    private static final int CATEGORIES_PER_FRAGMENT = 3;
 
     private BrowseFragment browseFragment;
     private BrowseSupportFragment browseSupportFragment;
@@ -55,6 +53,13 @@ public class DemoActivity extends FragmentActivity {
 
     private ArrayList<Video[]> videoList;
     private ArrayObjectAdapter adapter;
+    private CatalogParser catalogParser;
+    private boolean browseFragmentShown;
+
+    // rows of the content fragment being filled, in the custom layout
+    private ArrayObjectAdapter fragmentRowsAdapter;
+    // a single card presenter lets every category reuse the card views of the others
+    private final VideoPresenter videoPresenter = new VideoPresenter();
 
     /**
      * The combination of the following four parameters regulates the behavior of this demo.
@@ -93,79 +98,99 @@ public class DemoActivity extends FragmentActivity {
         browseClickListener = new OnItemViewClickedListener() {
             @Override
             public void onItemClicked(Presenter.ViewHolder itemViewHolder, Object item, RowPresenter.ViewHolder rowViewHolder, Row row) {
-                Toast.makeText(itemViewHolder.view.getContext(), ((Video) item).title, Toast.LENGTH_SHORT).show();
+                Toast.makeText(itemViewHolder.view.getContext(), ((Video) item).getTitle(), Toast.LENGTH_SHORT).show();
             }
         };
 
-        parseData();
-        if (useStandardAdapter) {
-            loadRowsStandard();
-        } else {
-            loadRowsCustom(displayFocusFragment, useSupportVersion);
+        if (!useStockBrowseFragment) {
+            // the browse layouts get inflated in background while the data is parsed
+            AsyncViewInflater viewInflater = new AsyncViewInflater(this);
+            viewInflater.prefetchBrowseLayouts(2);
+            browseFragment.setAsyncViewInflater(viewInflater);
+            browseSupportFragment.setAsyncViewInflater(viewInflater);
+            // cards for a full row width, so that the first scroll creates none
+            browseFragment.prewarmViewHolders(8);
+            browseSupportFragment.prewarmViewHolders(8);
         }
 
-        if (useSupportVersion) {
-            android.support.v4.app.FragmentManager fragmentManager = getSupportFragmentManager();
-            android.support.v4.app.FragmentTransaction transaction = fragmentManager.beginTransaction();
-            transaction.add(R.id.container, useStockBrowseFragment ? browseStockSupportFragment : browseSupportFragment, "BrowseFragment");
-            transaction.commit();
-        } else {
-            FragmentManager fragmentManager = getFragmentManager();
-            FragmentTransaction transaction = fragmentManager.beginTransaction();
-            transaction.add(R.id.container, useStockBrowseFragment ? browseStockFragment : browseFragment, "BrowseFragment");
-            transaction.commit();
-        }
+        // categories are added to the adapter as they are parsed, in background
+        videoList = new ArrayList<>();
+        adapter = useStandardAdapter ? new ArrayObjectAdapter(new ListRowPresenter()) : new ArrayObjectAdapter();
+        // after the first launch, the catalogue is read from its snapshot instead
+        catalogParser = new CatalogParser(getAssets(), CATALOG_ASSET, new File(getCacheDir(), CATALOG_SNAPSHOT),
+                getCatalogStamp(), catalogListener);
+        catalogParser.start();
     }
 
     /**
-     * Parses the video data.
+     * Returns a value that changes whenever the catalogue asset may have changed, that is when
+     * the app gets updated.
      */
-    private void parseData() {
-        videoList = new ArrayList<>();
+    private long getCatalogStamp() {
         try {
-            JsonElement root = new JsonParser().parse(new BufferedReader(new InputStreamReader(getResources().getAssets().open("android_tv_videos.json"))));
-            JsonArray array = root.getAsJsonObject().get("googlevideos").getAsJsonArray();
-
-            Gson gson = new Gson();
-
-            for (JsonElement element : array) {
-                String category = element.getAsJsonObject().get("category").getAsString();
-                JsonArray videoArray = element.getAsJsonObject().get("videos").getAsJsonArray();
-                JsonObject videoObject;
-                Video[] categoryVideos = new Video[videoArray.size()];
-                Video video;
-                for (int i = 0, limit = videoArray.size(); i < limit; i++) {
-                    videoObject = videoArray.get(i).getAsJsonObject();
-                    video = gson.fromJson(videoObject, Video.class);
-                    video.category = category;
-                    video.source = videoObject.get("sources").getAsJsonArray().get(0).getAsString();
-                    categoryVideos[i] = video;
-                    video.card = BASE_CONTENT_URL + URLEncoder.encode(video.category, "UTF-8").replace("+", "%20") + "/" + URLEncoder.encode(video.title, "UTF-8").replace("+", "%20") + "/" + video.card;
-                }
-                videoList.add(categoryVideos);
+            return getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        catalogParser.cancel();
+        super.onDestroy();
+    }
+
+    private final CatalogParser.Listener catalogListener = new CatalogParser.Listener() {
+        @Override
+        public void onCategoryParsed(String category, Video[] videos) {
+            videoList.add(videos);
+            if (useStandardAdapter) {
+                addRowStandard(category, videos);
+            } else {
+                addRowCustom(category, videos, useSupportVersion);
             }
-        } catch (IOException e) {
+            // the browse fragment shows up with the first category, the others follow
+            showBrowseFragment();
+        }
+
+        @Override
+        public void onCatalogParsed() {
+            if (!useStandardAdapter && displayFocusFragment) {
+                addFocusTestRow(useSupportVersion);
+            }
+            showBrowseFragment();
+        }
+
+        @Override
+        public void onCatalogFailed(IOException e) {
             e.printStackTrace();
+            onCatalogParsed();
         }
-    }
+    };
 
     /**
-     * Loads the video data into the adapter. Videos are loaded using the standard
+     * Adds a category to the adapter. Videos are loaded using the standard
      * BrowseFragment behavior, regardless of what type of BrowseFragment component is being used
      * (more specifically, the original Leanback one or the custom one provided by this library).
      *
      * @see BrowseFragment
      * @see android.support.v17.leanback.app.BrowseFragment
      */
-    private void loadRowsStandard() {
-        adapter = new ArrayObjectAdapter(new ListRowPresenter());
-
-        for (Video[] categoryVideos : videoList) {
-            ArrayObjectAdapter videoCategoryAdapter = new ArrayObjectAdapter(new VideoPresenter());
-            videoCategoryAdapter.addAll(0, Arrays.asList(categoryVideos));
-            ListRow row = new ListRow(new HeaderItem(categoryVideos[0].category), videoCategoryAdapter);
-            adapter.add(row);
+    private void addRowStandard(String category, Video[] categoryVideos) {
+        ArrayObjectAdapter videoCategoryAdapter = new ArrayObjectAdapter(videoPresenter);
+        videoCategoryAdapter.addAll(0, Arrays.asList(categoryVideos));
+        adapter.add(new ListRow(new HeaderItem(category), videoCategoryAdapter));
+    }
+
+    /**
+     * Sets the adapter of the browse fragment and adds the fragment, once the adapter has its
+     * first header.
+     */
+    private void showBrowseFragment() {
+        if (browseFragmentShown || adapter.size() == 0) {
+            return;
         }
+        browseFragmentShown = true;
 
         if (useStockBrowseFragment) {
             if (useSupportVersion) {
@@ -192,76 +217,68 @@ public class DemoActivity extends FragmentActivity {
                 browseFragment.setTitle("Google Videos");
             }
         }
+
+        // parsing may end after the activity state is saved, the data is parsed again anyway
+        if (useSupportVersion) {
+            android.support.v4.app.FragmentManager fragmentManager = getSupportFragmentManager();
+            android.support.v4.app.FragmentTransaction transaction = fragmentManager.beginTransaction();
+            transaction.add(R.id.container, useStockBrowseFragment ? browseStockSupportFragment : browseSupportFragment, "BrowseFragment");
+            transaction.commitAllowingStateLoss();
+        } else {
+            FragmentManager fragmentManager = getFragmentManager();
+            FragmentTransaction transaction = fragmentManager.beginTransaction();
+            transaction.add(R.id.container, useStockBrowseFragment ? browseStockFragment : browseFragment, "BrowseFragment");
+            transaction.commitAllowingStateLoss();
+        }
     }
 
     /**
-     * Loads the videos data into the adapter. Videos are loaded in two separate fragments, in order
-     * to showcase how easily the use of {@link BrowseFragment} is. In addition, a custom fragment
-     * that showcases manual focus handling can be displayed.
-     *
-     * @param addFocusTest displays an additional fragment that demonstrates how custom fragments
-     *                     can be loaded and how manual focus should be handled.
+     * Adds a category to the adapter. Videos are loaded in separate fragments of
+     * {@link #CATEGORIES_PER_FRAGMENT} categories each, in order to showcase how easily the use
+     * of {@link BrowseFragment} is. The header of each fragment is added with its first category,
+     * the next categories become rows of the same fragment.
      */
-    private void loadRowsCustom(boolean addFocusTest, boolean useSupportVersion) {
-        adapter = new ArrayObjectAdapter();
-
-        int split = 3;
-        int rowsFragmentCount = videoList.size() / split + (videoList.size() % split != 0 ? 1 : 0);
-
-        for (int i = 0; i < rowsFragmentCount; i++) {
-            if (useSupportVersion) {
-                RowsSupportFragment rowsSupportFragment = new RowsSupportFragment();
-                rowsSupportFragment.enableRowScaling(true);
-            } else {
-                RowsFragment rowsFragment = new RowsFragment();
-                rowsFragment.enableRowScaling(true);
-            }
-
-            ArrayObjectAdapter rowsAdapter = new ArrayObjectAdapter(new ListRowPresenter());
-            String category = "Category";
-
-            for (int j = 0; j < split && (i * split + j) < videoList.size(); j++) {
-                Video[] videos = videoList.get(i * split + j);
-                ArrayObjectAdapter adapter = new ArrayObjectAdapter(new VideoPresenter());
-                adapter.addAll(0, Arrays.asList(videos));
-                rowsAdapter.add(new ListRow(adapter));
-                category = videos[0].category;
-            }
+    private void addRowCustom(String category, Video[] categoryVideos, final boolean useSupportVersion) {
+        if ((videoList.size() - 1) % CATEGORIES_PER_FRAGMENT == 0) {
+            final ArrayObjectAdapter rowsAdapter = new ArrayObjectAdapter(new ListRowPresenter());
+            fragmentRowsAdapter = rowsAdapter;
 
+            // the fragment is only built once the header gets selected
             ArrayObjectAdapter fragmentAdapter = new ArrayObjectAdapter();
-            if (useSupportVersion) {
-                RowsSupportFragment rowsSupportFragment = new RowsSupportFragment();
-                rowsSupportFragment.enableRowScaling(true);
-                rowsSupportFragment.setAdapter(rowsAdapter);
-                fragmentAdapter.add(rowsSupportFragment);
-            } else {
-                RowsFragment rowsFragment = new RowsFragment();
-                rowsFragment.enableRowScaling(true);
-                rowsFragment.setAdapter(rowsAdapter);
-                fragmentAdapter.add(rowsFragment);
-            }
+            fragmentAdapter.add(new ContentFragmentProvider() {
+                @Override
+                public ContentFragment createContentFragment(Row row) {
+                    if (useSupportVersion) {
+                        RowsSupportFragment rowsSupportFragment = new RowsSupportFragment();
+                        rowsSupportFragment.enableRowScaling(true);
+                        rowsSupportFragment.setAdapter(rowsAdapter);
+                        return rowsSupportFragment;
+                    } else {
+                        RowsFragment rowsFragment = new RowsFragment();
+                        rowsFragment.enableRowScaling(true);
+                        rowsFragment.setAdapter(rowsAdapter);
+                        return rowsFragment;
+                    }
+                }
+            });
             adapter.add(new ListRow(new HeaderItem(category), fragmentAdapter));
         }
 
-        if (addFocusTest) {
-            ArrayObjectAdapter thirdAdapter = new ArrayObjectAdapter();
-            thirdAdapter.add(useSupportVersion ? new DemoSupportFocusFragment() : new DemoFocusFragment());
+        ArrayObjectAdapter videoCategoryAdapter = new ArrayObjectAdapter(videoPresenter);
+        videoCategoryAdapter.addAll(0, Arrays.asList(categoryVideos));
+        fragmentRowsAdapter.add(new ListRow(videoCategoryAdapter));
+    }
 
-            ListRow thirdRow = new ListRow(new HeaderItem("Focus Test"), thirdAdapter);
-            adapter.add(thirdRow);
-        }
+    /**
+     * Adds a custom fragment that demonstrates how custom fragments can be loaded and how
+     * manual focus should be handled.
+     */
+    private void addFocusTestRow(boolean useSupportVersion) {
+        ArrayObjectAdapter thirdAdapter = new ArrayObjectAdapter();
+        thirdAdapter.add(useSupportVersion ? new DemoSupportFocusFragment() : new DemoFocusFragment());
 
-        if (useSupportVersion) {
-            browseSupportFragment.setAdapter(adapter);
-            browseSupportFragment.setOnSearchClickedListener(searchClickListener);
-            browseSupportFragment.setOnItemViewClickedListener(browseClickListener);
-            browseSupportFragment.setTitle("Google Videos");
-        } else {
-            browseFragment.setAdapter(adapter);
-            browseFragment.setOnSearchClickedListener(searchClickListener);
-            browseFragment.setOnItemViewClickedListener(browseClickListener);
-            browseFragment.setTitle("Google Videos");
-        }
+        ListRow thirdRow = new ListRow(new HeaderItem("Focus Test"), thirdAdapter);
+        adapter.add(thirdRow);
     }
 
     /**
@@ -284,11 +301,11 @@ public class DemoActivity extends FragmentActivity {
             Video video = (Video) item;
             VideoHolder holder = (VideoHolder) viewHolder;
 
-            holder.root.setTitleText(video.title);
-            holder.root.setContentText(video.studio);
+            holder.root.setTitleText(video.getTitle());
+            holder.root.setContentText(video.getStudio());
             holder.root.setMainImageDimensions(200, 200);
             Glide.with(holder.root.getMainImageView().getContext())
-                    .load(video.card)
+                    .load(video.getCard())
                     .fitCenter()
                     .into(holder.root.getMainImageView());
         }
@@ -310,24 +327,4 @@ public class DemoActivity extends FragmentActivity {
             }
         }
     }
-
-    /**
-     * Model class that represents a video.
-     */
-    private class Video {
-        String category;
-        String source;
-
-        @SerializedName("title")
-        String title;
-
-        @SerializedName("background")
-        String background;
-
-        @SerializedName("card")
-        String card;
-
-        @SerializedName("studio")
-        String studio;
-    }
 }
@@ -0,0 +1,85 @@
+package com.sgottard.sofademo;
+
+/**
+ * Model class that represents a video. Videos read from a {@link CatalogSnapshot} decode
+ * their strings on first access, typically when their card gets bound.
+ */
+class Video {
+    String category;
+    String source;
+    String title;
+    String background;
+    String card;
+    String studio;
+
+    private final CatalogSnapshot snapshot;
+    private final int index;
+
+    Video() {
+        this(null, -1);
+    }
+
+    Video(CatalogSnapshot snapshot, int index) {
+        this.snapshot = snapshot;
+        this.index = index;
+    }
+
+    String getSource() {
+        if (source == null) {
+            source = getField(CatalogSnapshot.FIELD_SOURCE);
+        }
+        return source;
+    }
+
+    String getTitle() {
+        if (title == null) {
+            title = getField(CatalogSnapshot.FIELD_TITLE);
+        }
+        return title;
+    }
+
+    String getBackground() {
+        if (background == null) {
+            background = getField(CatalogSnapshot.FIELD_BACKGROUND);
+        }
+        return background;
+    }
+
+    String getCard() {
+        if (card == null) {
+            card = getField(CatalogSnapshot.FIELD_CARD);
+        }
+        return card;
+    }
+
+    String getStudio() {
+        if (studio == null) {
+            studio = getField(CatalogSnapshot.FIELD_STUDIO);
+        }
+        return studio;
+    }
+
+    /**
+     * Returns a string field, one of the FIELD constants of {@link CatalogSnapshot}, as set
+     * or as stored in the snapshot.
+     */
+    String getField(int field) {
+        if (snapshot == null) {
+            switch (field) {
+                case CatalogSnapshot.FIELD_SOURCE:
+                    return source;
+                case CatalogSnapshot.FIELD_TITLE:
+                    return title;
+                case CatalogSnapshot.FIELD_BACKGROUND:
+                    return background;
+                case CatalogSnapshot.FIELD_CARD:
+                    return card;
+                case CatalogSnapshot.FIELD_STUDIO:
+                    return studio;
+                default:
+                    throw new IllegalArgumentException("Invalid field: " + field);
+            }
+        }
+        return snapshot.getString(index, field);
+    }
+}
@@ -0,0 +1,80 @@
+package com.sgottard.sofa;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The number of objects each benchmarked operation may allocate per iteration, read from
+ * the {@value #ASSET} asset, and the check of measured results against them.
+ * <p>
+ * In record mode no result fails: the measured counts are logged in the format of the
+ * asset instead, so that the budgets can be updated after an intended change.
+ */
+final class AllocationBudgets {
+
+    static final String ASSET = "allocation_budgets.properties";
+
+    private final Properties mBudgets = new Properties();
+    private final boolean mRecord;
+    private int mPassedCount;
+    private int mFailedCount;
+
+    AllocationBudgets(Context context, boolean record) {
+        mRecord = record;
+        InputStream in = null;
+        try {
+            in = context.getAssets().open(ASSET);
+            mBudgets.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + ASSET, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the allocations of the given result against its budget, if it has one.
+     *
+     * @return A line describing the outcome, or null if the result has no budget.
+     */
+    String check(Benchmark.Result result) {
+        // counts are compared in total, an average would round single allocations away
+        long allocs = result.mAllocs;
+        if (mRecord) {
+            String line = result.mName + "=" + (allocs + result.mIterations - 1) / result.mIterations;
+            Log.i(Benchmark.TAG, "Recorded budget: " + line);
+            return "RECORD " + line;
+        }
+        String budget = mBudgets.getProperty(result.mName);
+        if (budget == null) {
+            return null;
+        }
+        long allowed = Long.parseLong(budget.trim()) * result.mIterations;
+        String line = result.mName + ": " + allocs + " allocs in " + result.mIterations
+                + " steps, budget " + allowed;
+        if (allocs > allowed) {
+            mFailedCount++;
+            Log.e(Benchmark.TAG, "Over allocation budget, " + line);
+            return "FAIL " + line;
+        }
+        mPassedCount++;
+        return "PASS " + line;
+    }
+
+    int getPassedCount() {
+        return mPassedCount;
+    }
+
+    int getFailedCount() {
+        return mFailedCount;
+    }
+}
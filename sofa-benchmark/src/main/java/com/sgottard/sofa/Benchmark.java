@@ -0,0 +1,115 @@
+package com.sgottard.sofa;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Measures the time and the allocations of an operation run repeatedly on the main thread.
+ * Allocations are counted for the calling thread only.
+ */
+final class Benchmark {
+
+    static final String TAG = "SofaBenchmark";
+
+    /**
+     * An operation run synchronously once per iteration.
+     */
+    interface Operation {
+        void run(int iteration);
+    }
+
+    /**
+     * An operation that completes later on the main thread, by running the given callback.
+     */
+    interface AsyncOperation {
+        void run(int iteration, Runnable done);
+    }
+
+    interface OnResultListener {
+        void onResult(Result result);
+    }
+
+    static final class Result {
+        final String mName;
+        final int mIterations;
+        final long mNanosPerOp;
+        final long mAllocs;
+        final long mAllocsPerOp;
+        final long mBytesPerOp;
+
+        Result(String name, int iterations, long nanos, long allocs, long bytes) {
+            mName = name;
+            mIterations = iterations;
+            mNanosPerOp = nanos / iterations;
+            mAllocs = allocs;
+            mAllocsPerOp = allocs / iterations;
+            mBytesPerOp = bytes / iterations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-52s %10d ns/op %7d allocs/op %9d bytes/op",
+                    mName, mNanosPerOp, mAllocsPerOp, mBytesPerOp);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    static Result measure(String name, int iterations, Operation operation) {
+        // warms up lazily created state and the JIT outside of the measure
+        for (int i = 0, warmup = getWarmupIterations(iterations); i < warmup; i++) {
+            operation.run(i);
+        }
+        startCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run(i);
+        }
+        return stopCounting(name, iterations, System.nanoTime() - start);
+    }
+
+    static void measureAsync(final String name, final int iterations,
+            final AsyncOperation operation, final OnResultListener listener) {
+        final int warmup = getWarmupIterations(iterations);
+        new Runnable() {
+            private int mIteration;
+            private long mStart;
+
+            @Override
+            public void run() {
+                if (mIteration == warmup) {
+                    startCounting();
+                    mStart = System.nanoTime();
+                } else if (mIteration == warmup + iterations) {
+                    listener.onResult(stopCounting(name, iterations, System.nanoTime() - mStart));
+                    return;
+                }
+                operation.run(mIteration++, this);
+            }
+        }.run();
+    }
+
+    private static int getWarmupIterations(int iterations) {
+        return Math.max(1, iterations / 10);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void startCounting() {
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Result stopCounting(String name, int iterations, long nanos) {
+        Debug.stopAllocCounting();
+        Result result = new Result(name, iterations, nanos,
+                Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+        Log.i(TAG, result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,382 @@
+package com.sgottard.sofa;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.support.v17.leanback.widget.ArrayObjectAdapter;
+import android.support.v17.leanback.widget.HeaderItem;
+import android.support.v17.leanback.widget.ListRow;
+import android.support.v17.leanback.widget.ListRowPresenter;
+import android.support.v17.leanback.widget.Presenter;
+import android.support.v17.leanback.widget.Row;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the hot operations of Sofa on the device and reports, for each of them, the time
+ * and the allocations per operation, both in the log (tag {@value Benchmark#TAG}) and on
+ * screen once done. Runs start when the activity gets focus:
+ * <pre>
+ * adb shell am start -n com.sgottard.sofa.benchmark/com.sgottard.sofa.BenchmarkActivity
+ * </pre>
+ * Build the benchmark variant to measure without debugging overhead.
+ * <p>
+ * Results are also checked against the allocation budgets of {@link AllocationBudgets},
+ * in particular the D-pad navigation steps of a browse fragment, which must not allocate.
+ * Failed checks are logged as errors and fail the run: the activity then finishes with
+ * {@link #RESULT_CANCELED} and the report in the {@value #EXTRA_REPORT} extra, where a
+ * passing run returns {@link #RESULT_OK} and keeps the report on screen. Add
+ * <code>--ez record true</code> to the command to log the measured allocations instead.
+ */
+public class BenchmarkActivity extends Activity {
+
+    private static final int[] ROW_COUNTS = {10, 100, 1000};
+    private static final int ITEMS_PER_ROW = 10;
+    private static final int ITERATIONS = 100;
+    private static final int HEADER_COUNT = 20;
+    private static final int ROWS_PER_CONTENT = 5;
+    private static final String EXTRA_RECORD = "record";
+    static final String EXTRA_REPORT = "report";
+
+    private FrameLayout mContainer;
+    private final ArrayList<Benchmark.Result> mResults = new ArrayList<Benchmark.Result>();
+    private final Presenter mItemPresenter = new TextItemPresenter();
+    private AllocationBudgets mBudgets;
+    private boolean mStarted;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mContainer = new FrameLayout(this);
+        mContainer.setId(View.generateViewId());
+        setContentView(mContainer);
+        mBudgets = new AllocationBudgets(this, getIntent().getBooleanExtra(EXTRA_RECORD, false));
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && !mStarted) {
+            mStarted = true;
+            // each step runs in its own message, so that the previous one fully settles
+            runRowsBenchmarks(0);
+        }
+    }
+
+    private void runRowsBenchmarks(final int index) {
+        mContainer.post(new Runnable() {
+            @Override
+            public void run() {
+                if (index < ROW_COUNTS.length) {
+                    benchmarkRows(ROW_COUNTS[index]);
+                    runRowsBenchmarks(index + 1);
+                } else {
+                    benchmarkBrowse();
+                }
+            }
+        });
+    }
+
+    private void benchmarkRows(int rowCount) {
+        final RowsFragment fragment = new RowsFragment();
+        fragment.setAdapter(createRowsAdapter(rowCount));
+        showFragment(fragment);
+
+        mResults.add(Benchmark.measure("BaseRowFragment.updateAdapter/" + rowCount, ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        fragment.updateAdapter();
+                        // rebinding the rows happens in the layout pass
+                        layoutNow();
+                    }
+                }));
+        mResults.add(Benchmark.measure("RowsFragment.setExpand/" + rowCount, ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        fragment.setExpand(iteration % 2 == 0);
+                    }
+                }));
+        mResults.add(Benchmark.measure("RowsFragment.freezeRows/" + rowCount, ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        // freezes and unfreezes the rows
+                        fragment.onTransitionStart();
+                        fragment.onTransitionEnd();
+                    }
+                }));
+        mResults.add(Benchmark.measure("RowsFragment.setEntranceTransitionState/" + rowCount,
+                ITERATIONS, new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        fragment.setEntranceTransitionState(iteration % 2 == 0);
+                    }
+                }));
+        fragment.setEntranceTransitionState(true);
+    }
+
+    private void benchmarkBrowse() {
+        final BrowseFragment browseFragment = new BrowseFragment();
+        browseFragment.setAdapter(createContentAdapter());
+        // makes the title focusable, for the navigation between title and headers
+        browseFragment.setOnSearchClickedListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+            }
+        });
+        showFragment(browseFragment);
+        final FragmentManager childFragmentManager = browseFragment.getChildFragmentManager();
+        final HeadersFragment headersFragment = (HeadersFragment) childFragmentManager
+                .findFragmentById(R.id.browse_headers_dock);
+
+        Benchmark.Operation switchContent = new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                // the header grid reports the selection while laid out, which switches content
+                headersFragment.setSelectedPosition(iteration % HEADER_COUNT, false);
+                layoutNow();
+                childFragmentManager.executePendingTransactions();
+                layoutNow();
+            }
+        };
+        // walking every header defeats the content cache, no idle time is left to prefetch
+        mResults.add(Benchmark.measure("BrowseFragment.switchContent/uncached", ITERATIONS,
+                switchContent));
+        mResults.add(Benchmark.measure("BrowseFragment.switchContent/cached", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        headersFragment.setSelectedPosition(iteration % 2, false);
+                        layoutNow();
+                        childFragmentManager.executePendingTransactions();
+                        layoutNow();
+                    }
+                }));
+
+        headersFragment.setSelectedPosition(0, false);
+        layoutNow();
+        childFragmentManager.executePendingTransactions();
+        Benchmark.measureAsync("BrowseFragment.SetSelectionRunnable", ITERATIONS,
+                new Benchmark.AsyncOperation() {
+                    @Override
+                    public void run(int iteration, Runnable done) {
+                        // the selection runnable is posted, the callback runs right after it
+                        browseFragment.setSelectedPosition(0, false);
+                        mContainer.post(done);
+                    }
+                }, new Benchmark.OnResultListener() {
+                    @Override
+                    public void onResult(Benchmark.Result result) {
+                        mResults.add(result);
+                        benchmarkNavigation(browseFragment, headersFragment);
+                    }
+                });
+    }
+
+    /**
+     * Measures D-pad navigation steps, driving focus the way the view root does for key
+     * events, through the focus search and child focus listeners of the browse frame and
+     * the header and row selection listeners.
+     */
+    private void benchmarkNavigation(final BrowseFragment browseFragment,
+            HeadersFragment headersFragment) {
+        final FragmentManager childFragmentManager = browseFragment.getChildFragmentManager();
+        final View headersView = headersFragment.getVerticalGridView();
+        final View titleView = browseFragment.getTitleView();
+        headersView.requestFocus();
+        layoutNow();
+        final View header = headersView.findFocus();
+
+        mResults.add(Benchmark.measure("BrowseFragment.focusSearch/right", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        header.focusSearch(View.FOCUS_RIGHT);
+                    }
+                }));
+        mResults.add(Benchmark.measure("BrowseFragment.focusSearch/up", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        header.focusSearch(View.FOCUS_UP);
+                    }
+                }));
+        mResults.add(Benchmark.measure("BrowseFragment.childFocus/title", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        // the headers grid gives focus back to its selected header
+                        (iteration % 2 == 0 ? titleView : headersView).requestFocus();
+                    }
+                }));
+        headersView.requestFocus();
+        mResults.add(Benchmark.measure("BrowseFragment.navigate/headers", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        navigate(iteration % 2 == 0 ? View.FOCUS_DOWN : View.FOCUS_UP);
+                        layoutNow();
+                        childFragmentManager.executePendingTransactions();
+                        layoutNow();
+                    }
+                }));
+
+        browseFragment.setBrowseTransitionListener(new BrowseFragment.BrowseTransitionListener() {
+            @Override
+            public void onHeadersTransitionStop(boolean withHeaders) {
+                browseFragment.setBrowseTransitionListener(null);
+                // leaves the transition callbacks before measuring
+                mContainer.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        benchmarkRowNavigation(browseFragment);
+                    }
+                });
+            }
+        });
+        // moving right hides the headers and gives focus to the content
+        navigate(View.FOCUS_RIGHT);
+    }
+
+    private void benchmarkRowNavigation(BrowseFragment browseFragment) {
+        View contentView = browseFragment.getView().findViewById(R.id.browse_container_dock);
+        if (!contentView.hasFocus()) {
+            contentView.requestFocus();
+        }
+        mResults.add(Benchmark.measure("BrowseFragment.navigate/rows", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        navigate(iteration % 2 == 0 ? View.FOCUS_DOWN : View.FOCUS_UP);
+                        layoutNow();
+                    }
+                }));
+        showResults();
+    }
+
+    /**
+     * Moves focus in the given direction, as the view root does for a D-pad key.
+     */
+    private void navigate(int direction) {
+        View focused = getWindow().getDecorView().findFocus();
+        if (focused == null) {
+            throw new IllegalStateException("Nothing is focused");
+        }
+        View next = focused.focusSearch(direction);
+        if (next != null) {
+            next.requestFocus(direction);
+        }
+    }
+
+    private void showFragment(Fragment fragment) {
+        getFragmentManager().beginTransaction().replace(mContainer.getId(), fragment).commit();
+        getFragmentManager().executePendingTransactions();
+        layoutNow();
+    }
+
+    /**
+     * Measures and lays out the whole window synchronously, instead of waiting for the
+     * next frame.
+     */
+    private void layoutNow() {
+        View root = getWindow().getDecorView();
+        root.measure(View.MeasureSpec.makeMeasureSpec(root.getWidth(), View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(root.getHeight(), View.MeasureSpec.EXACTLY));
+        root.layout(root.getLeft(), root.getTop(), root.getRight(), root.getBottom());
+    }
+
+    private ArrayObjectAdapter createRowsAdapter(int rowCount) {
+        ArrayObjectAdapter rowsAdapter = new ArrayObjectAdapter(new ListRowPresenter());
+        for (int i = 0; i < rowCount; i++) {
+            ArrayObjectAdapter itemsAdapter = new ArrayObjectAdapter(mItemPresenter);
+            for (int j = 0; j < ITEMS_PER_ROW; j++) {
+                itemsAdapter.add("Item " + i + "." + j);
+            }
+            rowsAdapter.add(new ListRow(new HeaderItem(i, "Row " + i), itemsAdapter));
+        }
+        return rowsAdapter;
+    }
+
+    private ArrayObjectAdapter createContentAdapter() {
+        ArrayObjectAdapter adapter = new ArrayObjectAdapter();
+        for (int i = 0; i < HEADER_COUNT; i++) {
+            ArrayObjectAdapter contentAdapter = new ArrayObjectAdapter();
+            contentAdapter.add(new ContentFragmentProvider() {
+                @Override
+                public ContentFragment createContentFragment(Row row) {
+                    RowsFragment fragment = new RowsFragment();
+                    fragment.setAdapter(createRowsAdapter(ROWS_PER_CONTENT));
+                    return fragment;
+                }
+            });
+            adapter.add(new ListRow(new HeaderItem(i, "Header " + i), contentAdapter));
+        }
+        return adapter;
+    }
+
+    private void showResults() {
+        getFragmentManager().beginTransaction()
+                .remove(getFragmentManager().findFragmentById(mContainer.getId())).commit();
+        StringBuilder report = new StringBuilder();
+        for (Benchmark.Result result : mResults) {
+            report.append(result).append('\n');
+        }
+        report.append('\n');
+        for (Benchmark.Result result : mResults) {
+            String check = mBudgets.check(result);
+            if (check != null) {
+                report.append(check).append('\n');
+            }
+        }
+        Log.i(Benchmark.TAG, "Done, " + mResults.size() + " benchmarks, allocation budgets: "
+                + mBudgets.getPassedCount() + " passed, " + mBudgets.getFailedCount() + " failed");
+        Intent data = new Intent().putExtra(EXTRA_REPORT, report.toString());
+        if (mBudgets.getFailedCount() > 0) {
+            // an allocation regression must not pass for a slow run to whoever started it
+            setResult(RESULT_CANCELED, data);
+            finish();
+            return;
+        }
+        setResult(RESULT_OK, data);
+        TextView textView = new TextView(this);
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setText(report);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(textView);
+        mContainer.addView(scrollView);
+    }
+
+    /**
+     * A lightweight card, so that measures are dominated by Sofa rather than by the items.
+     */
+    static class TextItemPresenter extends Presenter {
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup parent) {
+            TextView view = new TextView(parent.getContext());
+            view.setLayoutParams(new ViewGroup.LayoutParams(240, 135));
+            view.setFocusable(true);
+            view.setFocusableInTouchMode(true);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder viewHolder, Object item) {
+            ((TextView) viewHolder.view).setText((String) item);
+        }
+
+        @Override
+        public void onUnbindViewHolder(ViewHolder viewHolder) {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.sgottard.sofa;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Inflates layouts on a background thread ahead of the time they are needed, so that
+ * {@link BrowseFragment} and the fragments it hosts can pick an already inflated view
+ * tree in onCreateView() instead of inflating it on the UI thread.
+ * <p>
+ * When no inflated tree is ready yet, or when a layout cannot be inflated off the UI
+ * thread, the layout is inflated synchronously as usual. The background thread has no
+ * Looper, so that views creating a Handler fail to inflate there rather than getting
+ * bound to a thread that is not the UI thread.
+ * <p>
+ * Views are inflated with the context given to the constructor, which should be the
+ * hosting Activity so that its theme applies. Create the inflater as early as possible,
+ * e.g. in Activity#onCreate() before loading data, call {@link #prefetchBrowseLayouts(int)}
+ * and hand it to the browse fragment with {@link BrowseFragment#setAsyncViewInflater}.
+ */
+public class AsyncViewInflater {
+
+    private static final String TAG = "AsyncViewInflater";
+    private static final boolean DEBUG = false;
+
+    private static InflateThread sInflateThread;
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+    // inflated trees that are ready to be used, by layout resource id
+    private final SparseArray<ArrayList<View>> mInflatedViews = new SparseArray<ArrayList<View>>();
+    private int mGeneration;
+
+    public AsyncViewInflater(Context context) {
+        mContext = context;
+        mInflater = LayoutInflater.from(context).cloneInContext(context);
+    }
+
+    /**
+     * Queues the background inflation of one instance of the given layout.
+     */
+    public void prefetch(int layoutResId) {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        getInflateThread().enqueue(new InflateRunnable(layoutResId, generation));
+    }
+
+    /**
+     * Queues the layouts used by a browse fragment: the browse frame, the headers
+     * and the given number of rows fragments.
+     */
+    public void prefetchBrowseLayouts(int rowsFragmentCount) {
+        prefetch(R.layout.lb_browse_fragment);
+        prefetch(R.layout.lb_headers_fragment);
+        for (int i = 0; i < rowsFragmentCount; i++) {
+            prefetch(R.layout.lb_rows_fragment);
+        }
+    }
+
+    /**
+     * Returns a view tree for the given layout, either one inflated in background or,
+     * if none is ready, one inflated synchronously. The view is not attached to the
+     * container.
+     *
+     * @hide
+     */
+    public View inflate(LayoutInflater inflater, int layoutResId, ViewGroup container) {
+        View view = null;
+        synchronized (this) {
+            ArrayList<View> views = mInflatedViews.get(layoutResId);
+            if (views != null && !views.isEmpty()) {
+                view = views.remove(views.size() - 1);
+            }
+        }
+        if (view == null) {
+            if (DEBUG) Log.v(TAG, "inflating synchronously " + layoutResId);
+            view = inflater.inflate(layoutResId, container, false);
+        }
+        return view;
+    }
+
+    /**
+     * Drops every inflated tree and every queued inflation.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mInflatedViews.clear();
+    }
+
+    private static synchronized InflateThread getInflateThread() {
+        if (sInflateThread == null) {
+            sInflateThread = new InflateThread();
+            sInflateThread.start();
+        }
+        return sInflateThread;
+    }
+
+    /**
+     * Runs the queued inflations one after the other. Unlike a HandlerThread, it never
+     * prepares a Looper.
+     */
+    private static final class InflateThread extends Thread {
+        private final BlockingQueue<InflateRunnable> mQueue =
+                new LinkedBlockingQueue<InflateRunnable>();
+
+        InflateThread() {
+            super(TAG);
+        }
+
+        void enqueue(InflateRunnable runnable) {
+            // the queue is unbounded, the UI thread never waits here
+            mQueue.add(runnable);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                InflateRunnable runnable;
+                try {
+                    runnable = mQueue.take();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while waiting for an inflation", e);
+                    continue;
+                }
+                runnable.run();
+            }
+        }
+    }
+
+    private final class InflateRunnable implements Runnable {
+        private final int mLayoutResId;
+        private final int mInflateGeneration;
+
+        InflateRunnable(int layoutResId, int generation) {
+            mLayoutResId = layoutResId;
+            mInflateGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            synchronized (AsyncViewInflater.this) {
+                if (mInflateGeneration != mGeneration) {
+                    return;
+                }
+            }
+            View view;
+            try {
+                // the parent only provides layout params, as when inflating into a container
+                view = mInflater.inflate(mLayoutResId, new FrameLayout(mContext), false);
+            } catch (RuntimeException e) {
+                // some views can only be created on the UI thread, it will inflate them
+                Log.w(TAG, "Cannot inflate layout in background: " + mLayoutResId, e);
+                return;
+            }
+            synchronized (AsyncViewInflater.this) {
+                if (mInflateGeneration != mGeneration) {
+                    return;
+                }
+                ArrayList<View> views = mInflatedViews.get(mLayoutResId);
+                if (views == null) {
+                    views = new ArrayList<View>();
+                    mInflatedViews.put(mLayoutResId, views);
+                }
+                views.add(view);
+            }
+            if (DEBUG) Log.v(TAG, "inflated " + mLayoutResId);
+        }
+    }
+}
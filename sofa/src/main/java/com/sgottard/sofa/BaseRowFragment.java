@@ -27,6 +27,8 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.Collection;
+
 /**
  * An internal base class for a fragment containing a list of rows.
  */
@@ -36,6 +38,7 @@ abstract class BaseRowFragment extends Fragment {
     private PresenterSelector mPresenterSelector;
     private ItemBridgeAdapter mBridgeAdapter;
     private int mSelectedPosition = -1;
+    private AsyncViewInflater mAsyncViewInflater;
 
     abstract int getLayoutResourceId();
 
@@ -55,11 +58,20 @@ abstract class BaseRowFragment extends Fragment {
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
-        View view = inflater.inflate(getLayoutResourceId(), container, false);
+        View view = mAsyncViewInflater != null
+                ? mAsyncViewInflater.inflate(inflater, getLayoutResourceId(), container)
+                : inflater.inflate(getLayoutResourceId(), container, false);
         mVerticalGridView = findGridViewFromRoot(view);
         return view;
     }
 
+    /**
+     * Sets an inflater that may already hold the view tree of this fragment.
+     */
+    void setAsyncViewInflater(AsyncViewInflater inflater) {
+        mAsyncViewInflater = inflater;
+    }
+
     VerticalGridView findGridViewFromRoot(View view) {
         return (VerticalGridView) view;
     }
@@ -112,6 +124,22 @@ abstract class BaseRowFragment extends Fragment {
         return mAdapter;
     }
 
+    /**
+     * Replaces the rows with the given ones, binding again only the rows that were
+     * inserted, removed or changed, see {@link DiffObjectAdapter#setItems(Collection)}.
+     * The adapter must be a DiffObjectAdapter: it is shared with the headers when the
+     * fragment is hosted by a {@link BrowseFragment}, so it cannot be swapped from here.
+     *
+     * @throws IllegalStateException if the adapter is not a DiffObjectAdapter.
+     */
+    public final void updateRows(Collection<?> rows) {
+        if (!(mAdapter instanceof DiffObjectAdapter)) {
+            throw new IllegalStateException("updateRows() needs a DiffObjectAdapter, set one "
+                    + "with setAdapter() first");
+        }
+        ((DiffObjectAdapter) mAdapter).setItems(rows);
+    }
+
     /**
      * Returns the bridge adapter.
      */
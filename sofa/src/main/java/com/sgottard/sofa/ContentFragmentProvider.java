@@ -0,0 +1,20 @@
+package com.sgottard.sofa;
+
+import android.support.v17.leanback.widget.Row;
+
+/**
+ * Creates the content fragment of a header on demand.
+ * <p>
+ * Put a provider as the only item of a header's {@link android.support.v17.leanback.widget.ListRow}
+ * adapter instead of the fragment itself: {@link BrowseFragment} then creates the fragment
+ * when the header is first selected or prefetched, and may drop it and ask for a new one
+ * later, e.g. once it falls out of the content cache.
+ */
+public interface ContentFragmentProvider {
+    /**
+     * Creates a new content fragment for the given header row. The fragment must be a
+     * {@link android.app.Fragment} for {@link BrowseFragment} and a support library
+     * Fragment for {@link com.sgottard.sofa.support.BrowseSupportFragment}.
+     */
+    ContentFragment createContentFragment(Row row);
+}
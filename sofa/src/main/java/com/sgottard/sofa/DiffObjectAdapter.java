@@ -0,0 +1,309 @@
+package com.sgottard.sofa;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v17.leanback.widget.HeaderItem;
+import android.support.v17.leanback.widget.ListRow;
+import android.support.v17.leanback.widget.ObjectAdapter;
+import android.support.v17.leanback.widget.Presenter;
+import android.support.v17.leanback.widget.PresenterSelector;
+import android.support.v17.leanback.widget.Row;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An {@link ObjectAdapter} whose items are replaced as a whole with {@link #setItems(Collection)},
+ * notifying only the items that were removed, inserted or changed since the previous list.
+ * The views of the items that stayed the same are kept as they are, instead of the whole
+ * screen being bound again as with a new adapter.
+ * <p>
+ * Moved items are notified as a removal and an insertion, since ObjectAdapter observers
+ * have no notion of moves. The difference between long lists is computed on a background
+ * thread, the items and the notifications are then updated together on the main thread.
+ * <p>
+ * Given to a {@link BrowseFragment}, the headers and the rows are both updated this way.
+ */
+public class DiffObjectAdapter extends ObjectAdapter {
+
+    /**
+     * Number of items of the old and the new list together from which the difference is
+     * computed in background.
+     */
+    public static final int DEFAULT_BACKGROUND_THRESHOLD = 200;
+
+    /**
+     * Decides which items of two lists are the same and which need binding again.
+     */
+    public interface ItemComparator {
+        /**
+         * Returns whether both items represent the same thing, e.g. have the same id.
+         */
+        boolean areItemsTheSame(Object oldItem, Object newItem);
+
+        /**
+         * Returns whether the views of an item that is the same as the new one can be
+         * kept, without binding them to the new item.
+         */
+        boolean areContentsTheSame(Object oldItem, Object newItem);
+    }
+
+    /**
+     * Compares rows by the id of their header and other items with equals().
+     * <p>
+     * Two {@link ListRow}s have the same contents if their headers have the same id and
+     * name, and if they share the same item adapter or their item adapters hold equal
+     * items, so that a refresh building new rows only binds the rows that changed. Other
+     * rows have the same contents only if they are the same instance. Pass another
+     * comparator to {@link #setItemComparator(ItemComparator)} when rows carry more state.
+     */
+    public static final ItemComparator DEFAULT_COMPARATOR = new ItemComparator() {
+        @Override
+        public boolean areItemsTheSame(Object oldItem, Object newItem) {
+            if (oldItem instanceof Row && newItem instanceof Row) {
+                Row oldRow = (Row) oldItem;
+                Row newRow = (Row) newItem;
+                if (oldRow.getHeaderItem() != null && newRow.getHeaderItem() != null) {
+                    return oldRow.getHeaderItem().getId() == newRow.getHeaderItem().getId();
+                }
+            }
+            return oldItem == null ? newItem == null : oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(Object oldItem, Object newItem) {
+            if (oldItem instanceof ListRow && newItem instanceof ListRow) {
+                ListRow oldRow = (ListRow) oldItem;
+                ListRow newRow = (ListRow) newItem;
+                return isSameHeader(oldRow.getHeaderItem(), newRow.getHeaderItem())
+                        && isSameItems(oldRow.getAdapter(), newRow.getAdapter());
+            }
+            if (oldItem instanceof Row) {
+                return oldItem == newItem;
+            }
+            return isEqual(oldItem, newItem);
+        }
+
+        private boolean isSameHeader(HeaderItem oldHeader, HeaderItem newHeader) {
+            if (oldHeader == null || newHeader == null) {
+                return oldHeader == newHeader;
+            }
+            return oldHeader.getId() == newHeader.getId()
+                    && isEqual(oldHeader.getName(), newHeader.getName());
+        }
+
+        private boolean isSameItems(ObjectAdapter oldAdapter, ObjectAdapter newAdapter) {
+            if (oldAdapter == newAdapter) {
+                return true;
+            }
+            if (oldAdapter == null || newAdapter == null
+                    || oldAdapter.size() != newAdapter.size()) {
+                return false;
+            }
+            for (int i = 0, size = oldAdapter.size(); i < size; i++) {
+                if (!isEqual(oldAdapter.get(i), newAdapter.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isEqual(Object oldItem, Object newItem) {
+            return oldItem == null ? newItem == null : oldItem.equals(newItem);
+        }
+    };
+
+    private static Handler sDiffHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ArrayList<Object> mItems = new ArrayList<Object>();
+    private ItemComparator mComparator = DEFAULT_COMPARATOR;
+    private int mBackgroundThreshold = DEFAULT_BACKGROUND_THRESHOLD;
+    // incremented by every update, a background diff only applies to the latest one
+    private int mGeneration;
+    private boolean mUpdatePending;
+
+    /**
+     * Constructs an adapter with the given {@link PresenterSelector}.
+     */
+    public DiffObjectAdapter(PresenterSelector presenterSelector) {
+        super(presenterSelector);
+    }
+
+    /**
+     * Constructs an adapter that uses the given {@link Presenter} for all items.
+     */
+    public DiffObjectAdapter(Presenter presenter) {
+        super(presenter);
+    }
+
+    /**
+     * Constructs an adapter.
+     */
+    public DiffObjectAdapter() {
+        super();
+    }
+
+    @Override
+    public int size() {
+        return mItems.size();
+    }
+
+    @Override
+    public Object get(int position) {
+        return mItems.get(position);
+    }
+
+    /**
+     * Sets how items are compared. The default is {@link #DEFAULT_COMPARATOR}.
+     */
+    public void setItemComparator(ItemComparator comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("Comparator cannot be null");
+        }
+        mComparator = comparator;
+    }
+
+    /**
+     * Returns how items are compared.
+     */
+    public ItemComparator getItemComparator() {
+        return mComparator;
+    }
+
+    /**
+     * Sets the number of items of the old and the new list together from which the
+     * difference is computed in background. The default is
+     * {@link #DEFAULT_BACKGROUND_THRESHOLD}.
+     */
+    public void setBackgroundThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        mBackgroundThreshold = threshold;
+    }
+
+    /**
+     * Returns the number of items from which the difference is computed in background.
+     */
+    public int getBackgroundThreshold() {
+        return mBackgroundThreshold;
+    }
+
+    /**
+     * Returns whether a list given to {@link #setItems(Collection)} is still being
+     * compared in background, and not reflected by the adapter yet.
+     */
+    public boolean isUpdatePending() {
+        return mUpdatePending;
+    }
+
+    /**
+     * Replaces the items with the given ones, notifying only the differences. Must be
+     * called on the main thread. When the lists are long the adapter keeps its current
+     * items until the difference has been computed in background; a later call
+     * supersedes a pending one.
+     */
+    public void setItems(Collection<?> items) {
+        final ArrayList<Object> oldItems = mItems;
+        final ArrayList<Object> newItems = new ArrayList<Object>(items);
+        final ItemComparator comparator = mComparator;
+        final int generation = ++mGeneration;
+        if (oldItems.size() + newItems.size() < mBackgroundThreshold) {
+            mUpdatePending = false;
+            applyItems(newItems, computeRuns(oldItems, newItems, comparator), comparator);
+            return;
+        }
+        mUpdatePending = true;
+        getDiffHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final int[] runs = computeRuns(oldItems, newItems, comparator);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mUpdatePending = false;
+                            applyItems(newItems, runs, comparator);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces the items with the given ones without comparing them, every item is
+     * bound again. Cancels a pending {@link #setItems(Collection)}.
+     */
+    public void resetItems(Collection<?> items) {
+        mGeneration++;
+        mUpdatePending = false;
+        mItems = new ArrayList<Object>(items);
+        notifyChanged();
+    }
+
+    /**
+     * Removes every item.
+     */
+    public void clear() {
+        setItems(new ArrayList<Object>(0));
+    }
+
+    private static int[] computeRuns(List<?> oldItems, List<?> newItems,
+            ItemComparator comparator) {
+        return ListDiff.computeRuns(oldItems, newItems, toMatcher(comparator));
+    }
+
+    private void applyItems(ArrayList<Object> newItems, int[] runs, ItemComparator comparator) {
+        ArrayList<Object> oldItems = mItems;
+        mItems = newItems;
+        if (runs == null) {
+            // too different to be worth notifying item by item
+            notifyChanged();
+            return;
+        }
+        ListDiff.dispatchUpdates(runs, oldItems, newItems, toMatcher(comparator),
+                new ListDiff.UpdateCallback() {
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        notifyItemRangeRemoved(position, count);
+                    }
+
+                    @Override
+                    public void onInserted(int position, int count) {
+                        notifyItemRangeInserted(position, count);
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count) {
+                        notifyItemRangeChanged(position, count);
+                    }
+                });
+    }
+
+    private static ListDiff.Matcher toMatcher(final ItemComparator comparator) {
+        return new ListDiff.Matcher() {
+            @Override
+            public boolean isSameItem(Object oldItem, Object newItem) {
+                return comparator.areItemsTheSame(oldItem, newItem);
+            }
+
+            @Override
+            public boolean isSameContent(Object oldItem, Object newItem) {
+                return comparator.areContentsTheSame(oldItem, newItem);
+            }
+        };
+    }
+
+    private static synchronized Handler getDiffHandler() {
+        if (sDiffHandler == null) {
+            HandlerThread thread = new HandlerThread("DiffObjectAdapter");
+            thread.start();
+            sDiffHandler = new Handler(thread.getLooper());
+        }
+        return sDiffHandler;
+    }
+}
@@ -0,0 +1,234 @@
+package com.sgottard.sofa;
+
+import android.content.Context;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+/**
+ * Measures the duration of every frame and tags it with the browse navigation phase
+ * that was active meanwhile, so that dropped frames can be attributed to a Sofa operation.
+ * <p>
+ * The duration of a frame is the time between two consecutive frame callbacks of the
+ * {@link Choreographer}; a frame taking longer than the display refresh interval means
+ * frames were dropped. While started, the monitor requests a callback on every vsync.
+ */
+public class FrameMonitor implements Choreographer.FrameCallback {
+
+    /**
+     * Nothing specific is going on.
+     */
+    public static final int PHASE_IDLE = 0;
+    /**
+     * The headers are being shown or hidden.
+     */
+    public static final int PHASE_HEADERS_TRANSITION = 1;
+    /**
+     * The content fragment of a header is being switched in.
+     */
+    public static final int PHASE_CONTENT_SWITCH = 2;
+    /**
+     * The entrance transition is running.
+     */
+    public static final int PHASE_ENTRANCE_TRANSITION = 3;
+    /**
+     * Headers, rows or the items of a row are scrolling.
+     */
+    public static final int PHASE_ROW_SCROLL = 4;
+
+    static final int PHASE_COUNT = 5;
+
+    // phases in reporting order when several are active during a frame
+    private static final int[] PHASE_PRIORITY = {
+            PHASE_HEADERS_TRANSITION,
+            PHASE_ENTRANCE_TRANSITION,
+            PHASE_CONTENT_SWITCH,
+            PHASE_ROW_SCROLL
+    };
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /**
+     * Interface for receiving the frame metrics.
+     */
+    public interface OnFrameMetricsListener {
+        /**
+         * Called once per frame with the metrics of the previous frame.
+         *
+         * @param phase The phase active during the frame, one of the PHASE constants.
+         * @param frameDurationNanos The duration of the frame.
+         * @param droppedFrames The number of refresh intervals the frame overran.
+         */
+        void onFrameMetrics(int phase, long frameDurationNanos, int droppedFrames);
+    }
+
+    /**
+     * Interface for reporting phases that have no clear start and end, such as
+     * scrolling, by sampling them once per frame.
+     */
+    public interface PhaseSampler {
+        /**
+         * Returns a bit mask of the phases active right now, with bit
+         * <code>1 << phase</code> set for each active phase.
+         */
+        int samplePhases();
+    }
+
+    private OnFrameMetricsListener mListener;
+    private PhaseSampler mPhaseSampler;
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private boolean mStarted;
+    private long mLastFrameTimeNanos;
+
+    // phases currently active, and phases active at some point since the last frame
+    private int mActivePhases;
+    private int mFramePhases;
+    // remaining frames of the phases held with holdPhase()
+    private final int[] mHeldFrames = new int[PHASE_COUNT];
+
+    private final long[] mFrameCounts = new long[PHASE_COUNT];
+    private final long[] mDroppedFrameCounts = new long[PHASE_COUNT];
+
+    /**
+     * Sets the listener receiving the metrics of each frame.
+     */
+    public void setOnFrameMetricsListener(OnFrameMetricsListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the listener receiving the metrics of each frame.
+     */
+    public OnFrameMetricsListener getOnFrameMetricsListener() {
+        return mListener;
+    }
+
+    /**
+     * Sets the sampler of the phases that have no clear start and end.
+     */
+    public void setPhaseSampler(PhaseSampler sampler) {
+        mPhaseSampler = sampler;
+    }
+
+    /**
+     * Starts measuring frames, using the refresh rate of the default display.
+     */
+    public void start(Context context) {
+        if (mStarted) {
+            return;
+        }
+        WindowManager windowManager =
+                (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        mFrameIntervalNanos = refreshRate > 0
+                ? (long) (1000000000L / refreshRate) : DEFAULT_FRAME_INTERVAL_NANOS;
+        mStarted = true;
+        mLastFrameTimeNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops measuring frames.
+     */
+    public void stop() {
+        if (mStarted) {
+            mStarted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * Returns whether frames are being measured.
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Marks the given phase active until {@link #endPhase(int)} is called.
+     */
+    public void beginPhase(int phase) {
+        mActivePhases |= 1 << phase;
+        mFramePhases |= 1 << phase;
+    }
+
+    /**
+     * Marks the given phase inactive. Frames that started while it was active are
+     * still reported with it.
+     */
+    public void endPhase(int phase) {
+        mActivePhases &= ~(1 << phase);
+        mHeldFrames[phase] = 0;
+    }
+
+    /**
+     * Marks the given phase active for the current frame and the next one, for
+     * operations whose work spreads over the frames following the call, such as a
+     * committed fragment transaction.
+     */
+    public void holdPhase(int phase) {
+        beginPhase(phase);
+        mHeldFrames[phase] = 2;
+    }
+
+    /**
+     * Returns how many frames were reported with the given phase.
+     */
+    public long getFrameCount(int phase) {
+        return mFrameCounts[phase];
+    }
+
+    /**
+     * Returns how many frames were dropped during the given phase.
+     */
+    public long getDroppedFrameCount(int phase) {
+        return mDroppedFrameCounts[phase];
+    }
+
+    /**
+     * Resets the frame counts of every phase.
+     */
+    public void resetCounts() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mFrameCounts[i] = 0;
+            mDroppedFrameCounts[i] = 0;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mStarted) {
+            return;
+        }
+        int phases = mFramePhases;
+        if (mPhaseSampler != null) {
+            phases |= mPhaseSampler.samplePhases();
+        }
+        if (mLastFrameTimeNanos != 0) {
+            long duration = frameTimeNanos - mLastFrameTimeNanos;
+            int dropped = (int) Math.max(0, Math.round((double) duration / mFrameIntervalNanos) - 1);
+            int phase = getReportedPhase(phases);
+            mFrameCounts[phase]++;
+            mDroppedFrameCounts[phase] += dropped;
+            if (mListener != null) {
+                mListener.onFrameMetrics(phase, duration, dropped);
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            if (mHeldFrames[phase] > 0 && --mHeldFrames[phase] == 0) {
+                mActivePhases &= ~(1 << phase);
+            }
+        }
+        mFramePhases = mActivePhases;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private static int getReportedPhase(int phases) {
+        for (int i = 0; i < PHASE_PRIORITY.length; i++) {
+            if ((phases & (1 << PHASE_PRIORITY[i])) != 0) {
+                return PHASE_PRIORITY[i];
+            }
+        }
+        return PHASE_IDLE;
+    }
+}
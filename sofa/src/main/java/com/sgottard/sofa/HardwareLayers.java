@@ -0,0 +1,56 @@
+package com.sgottard.sofa;
+
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Puts views on hardware layers for the length of a transition, and takes them off the
+ * layers afterwards. While on a layer, a view that is only moved, scaled or faded is drawn
+ * from a texture, instead of its whole hierarchy being rendered again every frame.
+ * <p>
+ * Views that already have a layer type, set by the app or by another animation, are left
+ * as they are.
+ *
+ * @hide
+ */
+public class HardwareLayers {
+
+    private final ArrayList<View> mViews = new ArrayList<View>();
+
+    /**
+     * Puts the view on a hardware layer, and renders the layer right away if the view is
+     * attached so that the first frame of the transition does not pay for it.
+     */
+    public void add(View view) {
+        if (view == null || !view.isHardwareAccelerated()
+                || view.getLayerType() != View.LAYER_TYPE_NONE) {
+            return;
+        }
+        view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        if (view.getWindowToken() != null) {
+            view.buildLayer();
+        }
+        mViews.add(view);
+    }
+
+    /**
+     * Takes every view added since the last release off its layer.
+     */
+    public void release() {
+        for (int i = mViews.size() - 1; i >= 0; i--) {
+            View view = mViews.get(i);
+            if (view.getLayerType() == View.LAYER_TYPE_HARDWARE) {
+                view.setLayerType(View.LAYER_TYPE_NONE, null);
+            }
+        }
+        mViews.clear();
+    }
+
+    /**
+     * Returns whether views are on layers held by this instance.
+     */
+    public boolean isEmpty() {
+        return mViews.isEmpty();
+    }
+}
@@ -28,6 +28,7 @@ import android.support.v17.leanback.widget.SinglePresenterSelector;
 import android.support.v17.leanback.widget.VerticalGridView;
 import android.support.v7.widget.RecyclerView;
 import android.util.TypedValue;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnLayoutChangeListener;
 import android.view.ViewGroup;
@@ -49,6 +50,7 @@ public class HeadersFragment extends BaseRowFragment {
     private OnHeaderViewSelectedListener mOnHeaderViewSelectedListener;
     private OnHeaderClickedListener mOnHeaderClickedListener;
     private boolean mHeadersEnabled = true;
+    private boolean mFadingEdgeEnabled = true;
     private boolean mHeadersGone = false;
     private int mBackgroundColor;
     private boolean mBackgroundColorSet;
@@ -138,6 +140,7 @@ public class HeadersFragment extends BaseRowFragment {
         }
         view.setBackgroundColor(getBackgroundColor());
         updateFadingEdgeToBrandColor(getBackgroundColor());
+        updateFadingEdgeVisibility();
         updateListViewVisibility();
     }
 
@@ -193,8 +196,18 @@ public class HeadersFragment extends BaseRowFragment {
             return new NoOverlappingFrameLayout(root.getContext());
         }
     };
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        TraceSections.begin("HeadersFragment.onCreateView");
+        View view = super.onCreateView(inflater, container, savedInstanceState);
+        TraceSections.end();
+        return view;
+    }
+
     @Override
     void updateAdapter() {
+        TraceSections.begin("HeadersFragment.updateAdapter");
         super.updateAdapter();
         ItemBridgeAdapter adapter = getBridgeAdapter();
         if (adapter != null) {
@@ -204,6 +217,7 @@ public class HeadersFragment extends BaseRowFragment {
         if (adapter != null && getVerticalGridView() != null) {
             FocusHighlightHelper.setupHeaderItemFocusHighlight(getVerticalGridView());
         }
+        TraceSections.end();
     }
 
     void setBackgroundColor(int color) {
@@ -216,6 +230,19 @@ public class HeadersFragment extends BaseRowFragment {
         }
     }
 
+    void setFadingEdgeEnabled(boolean enabled) {
+        mFadingEdgeEnabled = enabled;
+        if (getView() != null) {
+            updateFadingEdgeVisibility();
+        }
+    }
+
+    private void updateFadingEdgeVisibility() {
+        // the edge is blended over the whole height of the headers on every frame
+        getView().findViewById(R.id.fade_out_edge).setVisibility(
+                mFadingEdgeEnabled ? View.VISIBLE : View.GONE);
+    }
+
     private void updateFadingEdgeToBrandColor(int backgroundColor) {
         View fadingView = getView().findViewById(R.id.fade_out_edge);
         Drawable background = fadingView.getBackground();
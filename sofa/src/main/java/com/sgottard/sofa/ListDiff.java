@@ -0,0 +1,172 @@
+package com.sgottard.sofa;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the shortest edit script between two lists with the algorithm of Myers
+ * ("An O(ND) Difference Algorithm and Its Variations"), as the runs of items both lists
+ * have in common. Whatever lies between two runs was removed from the old list and
+ * inserted from the new one.
+ */
+final class ListDiff {
+
+    /**
+     * Decides whether an item of the old list and an item of the new one are the same.
+     */
+    interface Matcher {
+        boolean isSameItem(Object oldItem, Object newItem);
+
+        /**
+         * Called for items that are the same, to know whether their views need binding
+         * again.
+         */
+        boolean isSameContent(Object oldItem, Object newItem);
+    }
+
+    /**
+     * Receives the changes turning the old list into the new one. Positions are in the
+     * list as changed by the previous calls, which come from the end of the list.
+     */
+    interface UpdateCallback {
+        void onRemoved(int position, int count);
+
+        void onInserted(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    // the trace of the search grows with the square of the distance, beyond this a
+    // full update is cheaper anyway
+    static final int MAX_EDIT_DISTANCE = 1000;
+
+    private ListDiff() {
+    }
+
+    /**
+     * Returns the runs of items in common, in order, as triplets of the start in the
+     * old list, the start in the new list and the length of the run, or null if the
+     * lists differ by more than {@link #MAX_EDIT_DISTANCE} insertions and removals.
+     */
+    static int[] computeRuns(List<?> oldItems, List<?> newItems, Matcher matcher) {
+        final int oldSize = oldItems.size();
+        final int newSize = newItems.size();
+        final int max = Math.min(oldSize + newSize, MAX_EDIT_DISTANCE);
+        final int offset = max + 1;
+        // furthest x reached on each diagonal k = x - y
+        final int[] v = new int[2 * max + 3];
+        final int[][] trace = new int[max + 1][];
+        int distance = -1;
+        search:
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < oldSize && y < newSize
+                        && matcher.isSameItem(oldItems.get(x), newItems.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= oldSize && y >= newSize) {
+                    distance = d;
+                    break search;
+                }
+            }
+            // only the diagonals reachable in d steps are needed to go back
+            trace[d] = Arrays.copyOfRange(v, offset - d, offset + d + 1);
+        }
+        if (distance < 0) {
+            return null;
+        }
+
+        // walks back from the end, collecting the runs from the last one
+        int[] runs = new int[3 * (distance + 1)];
+        int runCount = 0;
+        int x = oldSize;
+        int y = newSize;
+        for (int d = distance; d > 0; d--) {
+            int[] previous = trace[d - 1];
+            int k = x - y;
+            int previousK;
+            if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            // the run starts right after the insertion or the removal of this step
+            int startX = previousK == k + 1 ? previousX : previousX + 1;
+            if (x > startX) {
+                runCount = addRun(runs, runCount, startX, startX - k, x - startX);
+            }
+            x = previousX;
+            y = previousY;
+        }
+        if (x > 0) {
+            runCount = addRun(runs, runCount, 0, 0, x);
+        }
+
+        int[] result = new int[runCount * 3];
+        for (int i = 0; i < runCount; i++) {
+            System.arraycopy(runs, (runCount - 1 - i) * 3, result, i * 3, 3);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the removals, insertions and changes described by the given runs, from
+     * the end of the list so that each position is not affected by the changes that
+     * follow it.
+     */
+    static void dispatchUpdates(int[] runs, List<?> oldItems, List<?> newItems,
+            Matcher matcher, UpdateCallback callback) {
+        int oldEnd = oldItems.size();
+        int newEnd = newItems.size();
+        // walks the runs backward, then the items before the first run
+        for (int i = runs.length - 3; i >= -3; i -= 3) {
+            int oldStart = i >= 0 ? runs[i] : 0;
+            int newStart = i >= 0 ? runs[i + 1] : 0;
+            int length = i >= 0 ? runs[i + 2] : 0;
+            int oldRunEnd = oldStart + length;
+            int newRunEnd = newStart + length;
+            if (oldEnd > oldRunEnd) {
+                callback.onRemoved(oldRunEnd, oldEnd - oldRunEnd);
+            }
+            if (newEnd > newRunEnd) {
+                callback.onInserted(oldRunEnd, newEnd - newRunEnd);
+            }
+            // merges the changed items of the run into ranges
+            int changedEnd = -1;
+            for (int j = length - 1; j >= 0; j--) {
+                boolean changed = !matcher.isSameContent(oldItems.get(oldStart + j),
+                        newItems.get(newStart + j));
+                if (changed && changedEnd < 0) {
+                    changedEnd = oldStart + j + 1;
+                } else if (!changed && changedEnd >= 0) {
+                    callback.onChanged(oldStart + j + 1, changedEnd - oldStart - j - 1);
+                    changedEnd = -1;
+                }
+            }
+            if (changedEnd >= 0) {
+                callback.onChanged(oldStart, changedEnd - oldStart);
+            }
+            oldEnd = oldStart;
+            newEnd = newStart;
+        }
+    }
+
+    private static int addRun(int[] runs, int runCount, int oldStart, int newStart,
+            int length) {
+        runs[runCount * 3] = oldStart;
+        runs[runCount * 3 + 1] = newStart;
+        runs[runCount * 3 + 2] = length;
+        return runCount + 1;
+    }
+}
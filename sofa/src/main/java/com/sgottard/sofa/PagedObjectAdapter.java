@@ -0,0 +1,386 @@
+package com.sgottard.sofa;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v17.leanback.widget.ListRow;
+import android.support.v17.leanback.widget.ObjectAdapter;
+import android.support.v17.leanback.widget.Presenter;
+import android.support.v17.leanback.widget.PresenterSelector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link ObjectAdapter} that loads its items page by page, from a {@link PageLoader}
+ * supplied by the app, as the selection gets close to the last loaded item. Items are
+ * only created once their page is requested, so long lists can be displayed as soon as
+ * their first page is ready.
+ * <p>
+ * While a page loads the adapter can show placeholder items at its end, e.g. rows
+ * rendered as loading indicators, which the items of the page replace once loaded.
+ * <p>
+ * With {@link #setMaxPages(int)}, only a window of pages around the selection is kept:
+ * pages falling out of it are dropped, and loaded again when the selection comes back
+ * close to them.
+ * <p>
+ * Nothing is requested until {@link #start()}, so that the first page does not complete
+ * before the adapter is observed, nor while it is being set up.
+ * <p>
+ * Set as the adapter of a {@link RowsFragment}, or as the adapter of a {@link ListRow}
+ * displayed by a RowsFragment, the fragment starts the adapter once displayed and reports
+ * the selected row or item to it. Other views displaying the adapter need to call
+ * {@link #start()} and {@link #onItemSelected(int)} themselves.
+ */
+public class PagedObjectAdapter extends ObjectAdapter {
+
+    /**
+     * Default number of items from the end of the loaded items at which the next page
+     * is requested.
+     */
+    public static final int DEFAULT_PREFETCH_DISTANCE = 5;
+
+    /**
+     * Loads the pages of the adapter, typically from a background thread.
+     */
+    public interface PageLoader {
+        /**
+         * Starts loading a page. The callback can be called from any thread, and must be
+         * called exactly once.
+         *
+         * @param page The index of the page, starting at 0.
+         * @param pageSize The number of items expected, unless this is the last page.
+         */
+        void loadPage(int page, int pageSize, PageCallback callback);
+    }
+
+    /**
+     * Receives the result of a page load.
+     */
+    public final class PageCallback {
+        private final int mPageGeneration;
+        private final int mPage;
+
+        PageCallback(int generation, int page) {
+            mPageGeneration = generation;
+            mPage = page;
+        }
+
+        /**
+         * Adds the items of the page to the adapter.
+         *
+         * @param hasMore Whether more pages follow this one.
+         */
+        public void onPageLoaded(final List<?> items, final boolean hasMore) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPageGeneration == mGeneration) {
+                        addPage(mPage, items, hasMore);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reports that the page could not be loaded. It is requested again the next
+         * time the selection moves close to the end.
+         */
+        public void onPageFailed() {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPageGeneration == mGeneration) {
+                        endLoading();
+                    }
+                }
+            });
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PageLoader mLoader;
+    private final int mPageSize;
+    private final ArrayList<Object> mItems = new ArrayList<Object>();
+    private Object mPlaceholder;
+    private int mPlaceholderCount;
+    private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private int mMaxPages;
+
+    // the loaded pages are [mFirstPage, mNextPage), with these sizes
+    private int mFirstPage;
+    private int mNextPage;
+    private final ArrayList<Integer> mPageSizes = new ArrayList<Integer>();
+    private int mLoadingPage = -1;
+    private boolean mHasMore = true;
+    // placeholders currently at the end of the adapter
+    private int mShownPlaceholderCount;
+    private int mSelectedPosition = -1;
+    // incremented by reset(), pages requested before are dropped
+    private int mGeneration;
+
+    private final Runnable mCheckPrefetchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkPrefetch();
+        }
+    };
+
+    /**
+     * Constructs an adapter with the given {@link PresenterSelector}. Its first page is
+     * requested by {@link #start()}.
+     */
+    public PagedObjectAdapter(PresenterSelector presenterSelector, PageLoader loader,
+            int pageSize) {
+        super(presenterSelector);
+        mLoader = loader;
+        mPageSize = checkPageSize(pageSize);
+    }
+
+    /**
+     * Constructs an adapter that uses the given {@link Presenter} for all items. Its
+     * first page is requested by {@link #start()}.
+     */
+    public PagedObjectAdapter(Presenter presenter, PageLoader loader, int pageSize) {
+        super(presenter);
+        mLoader = loader;
+        mPageSize = checkPageSize(pageSize);
+    }
+
+    private static int checkPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        return pageSize;
+    }
+
+    @Override
+    public int size() {
+        return mItems.size() + mShownPlaceholderCount;
+    }
+
+    @Override
+    public Object get(int position) {
+        return position < mItems.size() ? mItems.get(position) : mPlaceholder;
+    }
+
+    /**
+     * Sets the item shown, the given number of times, at the end of the adapter while a
+     * page loads. The presenter selector of the adapter must handle it.
+     */
+    public void setPlaceholder(Object placeholder, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid placeholder count: " + count);
+        }
+        mPlaceholder = placeholder;
+        mPlaceholderCount = placeholder != null ? count : 0;
+    }
+
+    /**
+     * Sets how many items from the end of the loaded items the selection must be for
+     * the next page to be requested. The default is {@link #DEFAULT_PREFETCH_DISTANCE}.
+     */
+    public void setPrefetchDistance(int distance) {
+        if (distance < 0) {
+            throw new IllegalArgumentException("Invalid prefetch distance: " + distance);
+        }
+        mPrefetchDistance = distance;
+    }
+
+    /**
+     * Returns how many items from the end the next page is requested.
+     */
+    public int getPrefetchDistance() {
+        return mPrefetchDistance;
+    }
+
+    /**
+     * Sets the maximum number of pages kept loaded, 0 to keep every page. The default
+     * is 0. Use at least 3 pages, so that the selected item stays loaded with its
+     * neighbours on both sides.
+     */
+    public void setMaxPages(int maxPages) {
+        if (maxPages < 0) {
+            throw new IllegalArgumentException("Invalid max pages: " + maxPages);
+        }
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * Returns the maximum number of pages kept loaded, 0 for no limit.
+     */
+    public int getMaxPages() {
+        return mMaxPages;
+    }
+
+    /**
+     * Returns the index of the first loaded page, which is the page of the item at
+     * position 0.
+     */
+    public int getFirstLoadedPage() {
+        return mFirstPage;
+    }
+
+    /**
+     * Returns the number of items per page.
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns whether a page is being loaded.
+     */
+    public boolean isLoading() {
+        return mLoadingPage >= 0;
+    }
+
+    /**
+     * Returns whether more pages may follow the loaded ones.
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Requests the first page, unless it is loaded or loading already. Called once the
+     * adapter is displayed; calling it again is harmless. Must be called on the main
+     * thread.
+     * <p>
+     * If the first page fails, the adapter stays empty until the page is requested again
+     * by the next call to this method, to {@link #onItemSelected(int)}, or to
+     * {@link #reset()}.
+     */
+    public void start() {
+        if (mPageSizes.isEmpty()) {
+            // may be called during layout, when the adapter cannot change
+            mMainHandler.removeCallbacks(mCheckPrefetchRunnable);
+            mMainHandler.post(mCheckPrefetchRunnable);
+        }
+    }
+
+    /**
+     * Reports the selected item, the next page is requested if it is close to the end,
+     * or the first page if the adapter is still empty. Must be called on the main thread.
+     */
+    public void onItemSelected(int position) {
+        mSelectedPosition = position;
+        // selection is reported during layout, when the adapter cannot change
+        mMainHandler.removeCallbacks(mCheckPrefetchRunnable);
+        mMainHandler.post(mCheckPrefetchRunnable);
+    }
+
+    /**
+     * Drops every loaded item and requests the first page again, e.g. to refresh the
+     * content or to retry a first page that failed. Pages being loaded are ignored when
+     * they complete.
+     */
+    public void reset() {
+        mGeneration++;
+        mMainHandler.removeCallbacks(mCheckPrefetchRunnable);
+        mItems.clear();
+        mPageSizes.clear();
+        mShownPlaceholderCount = 0;
+        mFirstPage = 0;
+        mNextPage = 0;
+        mLoadingPage = -1;
+        mHasMore = true;
+        mSelectedPosition = -1;
+        notifyChanged();
+        loadPage(0);
+    }
+
+    private void checkPrefetch() {
+        // an empty adapter always requests its first page, there is nothing to select
+        if (mSelectedPosition >= mItems.size() - mPrefetchDistance) {
+            if (mHasMore) {
+                loadPage(mNextPage);
+            }
+        } else if (mSelectedPosition < mPrefetchDistance && mFirstPage > 0) {
+            loadPage(mFirstPage - 1);
+        }
+    }
+
+    private void loadPage(int page) {
+        if (mLoadingPage >= 0) {
+            return;
+        }
+        mLoadingPage = page;
+        if (page == mNextPage && mPlaceholderCount > 0) {
+            mShownPlaceholderCount = mPlaceholderCount;
+            notifyItemRangeInserted(mItems.size(), mShownPlaceholderCount);
+        }
+        mLoader.loadPage(page, mPageSize, new PageCallback(mGeneration, page));
+    }
+
+    private void addPage(int page, List<?> items, boolean hasMore) {
+        mLoadingPage = -1;
+        int count = items.size();
+        if (page == mNextPage) {
+            int start = mItems.size();
+            int placeholders = mShownPlaceholderCount;
+            mItems.addAll(items);
+            mPageSizes.add(count);
+            mShownPlaceholderCount = 0;
+            mHasMore = hasMore;
+            mNextPage++;
+            // the first items take the place of the placeholders
+            int replaced = Math.min(placeholders, count);
+            if (replaced > 0) {
+                notifyItemRangeChanged(start, replaced);
+            }
+            if (count > placeholders) {
+                notifyItemRangeInserted(start + placeholders, count - placeholders);
+            } else if (placeholders > count) {
+                notifyItemRangeRemoved(start + count, placeholders - count);
+            }
+            if (mMaxPages > 0 && mPageSizes.size() > mMaxPages) {
+                dropFirstPage();
+            }
+        } else if (page == mFirstPage - 1) {
+            mItems.addAll(0, items);
+            mPageSizes.add(0, count);
+            mFirstPage--;
+            mSelectedPosition += count;
+            notifyItemRangeInserted(0, count);
+            if (mMaxPages > 0 && mPageSizes.size() > mMaxPages) {
+                dropLastPage();
+            }
+        }
+        // a short page may leave the selection close to the end still
+        checkPrefetch();
+    }
+
+    private void dropFirstPage() {
+        int count = mPageSizes.remove(0);
+        mItems.subList(0, count).clear();
+        mFirstPage++;
+        mSelectedPosition -= count;
+        notifyItemRangeRemoved(0, count);
+    }
+
+    private void dropLastPage() {
+        int count = mPageSizes.remove(mPageSizes.size() - 1);
+        int start = mItems.size() - count;
+        mItems.subList(start, mItems.size()).clear();
+        mNextPage--;
+        mHasMore = true;
+        notifyItemRangeRemoved(start, count);
+    }
+
+    private void endLoading() {
+        mLoadingPage = -1;
+        if (mShownPlaceholderCount > 0) {
+            int placeholders = mShownPlaceholderCount;
+            mShownPlaceholderCount = 0;
+            notifyItemRangeRemoved(mItems.size(), placeholders);
+        }
+    }
+
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mMainHandler.post(runnable);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.sgottard.sofa;
+
+/**
+ * Turns the frame metrics of a {@link FrameMonitor} into a quality level, lowered one step
+ * at a time while frames keep being dropped and raised back one step at a time once they
+ * are not anymore.
+ * <p>
+ * Frames are judged by windows of {@link #WINDOW_FRAMES} frames during which something
+ * moved; idle frames say nothing about how the device copes with the effects. The level
+ * drops as soon as a window drops too many frames, but only rises after several smooth
+ * windows in a row, so that it does not go back and forth on a device that is borderline.
+ */
+public class QualityGovernor implements FrameMonitor.OnFrameMetricsListener {
+
+    /**
+     * Every effect is rendered.
+     */
+    public static final int QUALITY_FULL = 0;
+    /**
+     * Transitions are shortened and content is not prefetched.
+     */
+    public static final int QUALITY_REDUCED = 1;
+    /**
+     * Rows are rendered without scaling nor select level animations as well.
+     */
+    public static final int QUALITY_LOW = 2;
+    /**
+     * Transitions jump to their end and the fading edge of the headers is hidden as well.
+     */
+    public static final int QUALITY_MINIMAL = 3;
+
+    /**
+     * Number of frames, outside of {@link FrameMonitor#PHASE_IDLE}, judged together.
+     */
+    public static final int WINDOW_FRAMES = 60;
+
+    // share of the refresh intervals of a window that were dropped, from which the level
+    // drops, and up to which the window counts as smooth
+    private static final float DEGRADE_DROPPED_RATIO = 0.2f;
+    private static final float RECOVER_DROPPED_RATIO = 0.05f;
+    // smooth windows in a row needed to raise the level
+    private static final int RECOVER_WINDOWS = 4;
+
+    private int mLevel = QUALITY_FULL;
+    private int mWindowFrames;
+    private int mWindowDroppedFrames;
+    private int mSmoothWindows;
+
+    @Override
+    public void onFrameMetrics(int phase, long frameDurationNanos, int droppedFrames) {
+        if (phase == FrameMonitor.PHASE_IDLE) {
+            return;
+        }
+        mWindowFrames++;
+        mWindowDroppedFrames += droppedFrames;
+        if (mWindowFrames < WINDOW_FRAMES) {
+            return;
+        }
+        // a frame overrunning by n intervals took the place of n frames
+        float droppedRatio = (float) mWindowDroppedFrames / (mWindowFrames + mWindowDroppedFrames);
+        if (droppedRatio >= DEGRADE_DROPPED_RATIO) {
+            mSmoothWindows = 0;
+            if (mLevel < QUALITY_MINIMAL) {
+                mLevel++;
+            }
+        } else if (droppedRatio <= RECOVER_DROPPED_RATIO) {
+            if (mLevel > QUALITY_FULL && ++mSmoothWindows >= RECOVER_WINDOWS) {
+                mSmoothWindows = 0;
+                mLevel--;
+            }
+        } else {
+            mSmoothWindows = 0;
+        }
+        mWindowFrames = 0;
+        mWindowDroppedFrames = 0;
+    }
+
+    /**
+     * Returns the current quality level, one of the QUALITY constants.
+     */
+    public int getQualityLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Goes back to {@link #QUALITY_FULL} and forgets the frames judged so far.
+     */
+    public void reset() {
+        mLevel = QUALITY_FULL;
+        mWindowFrames = 0;
+        mWindowDroppedFrames = 0;
+        mSmoothWindows = 0;
+    }
+}
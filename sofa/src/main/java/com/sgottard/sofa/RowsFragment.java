@@ -13,28 +13,33 @@
  */
 package com.sgottard.sofa;
 
-import android.animation.TimeAnimator;
-import android.animation.TimeAnimator.TimeListener;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v17.leanback.widget.HorizontalGridView;
 import android.support.v17.leanback.widget.ItemBridgeAdapter;
+import android.support.v17.leanback.widget.ListRow;
 import android.support.v17.leanback.widget.ListRowPresenter;
+import android.support.v17.leanback.widget.ObjectAdapter;
 import android.support.v17.leanback.widget.OnItemViewClickedListener;
 import android.support.v17.leanback.widget.OnItemViewSelectedListener;
 import android.support.v17.leanback.widget.Presenter;
+import android.support.v17.leanback.widget.Row;
 import android.support.v17.leanback.widget.RowPresenter;
 import android.support.v17.leanback.widget.ScaleFrameLayout;
 import android.support.v17.leanback.widget.VerticalGridView;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.SparseIntArray;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewTreeObserver;
 import android.view.animation.DecelerateInterpolator;
 import android.view.animation.Interpolator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * An ordered set of rows of leanback widgets.
@@ -48,62 +53,120 @@ import java.util.ArrayList;
 public class RowsFragment extends BaseRowFragment implements ContentFragment {
 
     /**
-     * Internal helper class that manages row select animation and apply a default
-     * dim to each row.
+     * Internal helper class that runs the select animation of every row and applies a
+     * default dim to each row. All running animations are stepped from a single frame
+     * callback, and their state is kept in arrays indexed like the animated view holders.
      */
-    final class RowViewHolderExtra implements TimeListener {
-        final RowPresenter mRowPresenter;
-        final Presenter.ViewHolder mRowViewHolder;
-
-        final TimeAnimator mSelectAnimator = new TimeAnimator();
-
-        int mSelectAnimatorDurationInUse;
-        Interpolator mSelectAnimatorInterpolatorInUse;
-        float mSelectLevelAnimStart;
-        float mSelectLevelAnimDelta;
+    final class SelectLevelAnimator implements Choreographer.FrameCallback {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private ItemBridgeAdapter.ViewHolder[] mViewHolders =
+                new ItemBridgeAdapter.ViewHolder[INITIAL_CAPACITY];
+        private Interpolator[] mInterpolators = new Interpolator[INITIAL_CAPACITY];
+        // start frame time in nanoseconds, -1 until the first frame of the animation
+        private long[] mStartTimes = new long[INITIAL_CAPACITY];
+        private int[] mDurations = new int[INITIAL_CAPACITY];
+        private float[] mStartLevels = new float[INITIAL_CAPACITY];
+        private float[] mLevelDeltas = new float[INITIAL_CAPACITY];
+        private int mCount;
+        private boolean mFramePosted;
+
+        void animateSelect(ItemBridgeAdapter.ViewHolder vh, boolean select, boolean immediate) {
+            cancel(vh);
+            RowPresenter rowPresenter = (RowPresenter) vh.getPresenter();
+            Presenter.ViewHolder rowViewHolder = vh.getViewHolder();
+            final float end = select ? 1 : 0;
+            if (immediate) {
+                rowPresenter.setSelectLevel(rowViewHolder, end);
+            } else if (rowPresenter.getSelectLevel(rowViewHolder) != end) {
+                ensureCapacity(mCount + 1);
+                int index = mCount++;
+                mViewHolders[index] = vh;
+                mInterpolators[index] = mSelectAnimatorInterpolator;
+                mStartTimes[index] = -1;
+                mDurations[index] = mSelectAnimatorDuration;
+                mStartLevels[index] = rowPresenter.getSelectLevel(rowViewHolder);
+                mLevelDeltas[index] = end - mStartLevels[index];
+                if (!mFramePosted) {
+                    mFramePosted = true;
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            }
+        }
 
-        RowViewHolderExtra(ItemBridgeAdapter.ViewHolder ibvh) {
-            mRowPresenter = (RowPresenter) ibvh.getPresenter();
-            mRowViewHolder = ibvh.getViewHolder();
-            mSelectAnimator.setTimeListener(this);
+        /**
+         * Stops the animation of the row where it is, if any.
+         */
+        void cancel(ItemBridgeAdapter.ViewHolder vh) {
+            for (int i = 0; i < mCount; i++) {
+                if (mViewHolders[i] == vh) {
+                    remove(i);
+                    return;
+                }
+            }
         }
 
-        @Override
-        public void onTimeUpdate(TimeAnimator animation, long totalTime, long deltaTime) {
-            if (mSelectAnimator.isRunning()) {
-                updateSelect(totalTime, deltaTime);
+        void cancelAll() {
+            if (mFramePosted) {
+                mFramePosted = false;
+                Choreographer.getInstance().removeFrameCallback(this);
             }
+            Arrays.fill(mViewHolders, 0, mCount, null);
+            Arrays.fill(mInterpolators, 0, mCount, null);
+            mCount = 0;
         }
 
-        void updateSelect(long totalTime, long deltaTime) {
-            float fraction;
-            if (totalTime >= mSelectAnimatorDurationInUse) {
-                fraction = 1;
-                mSelectAnimator.end();
-            } else {
-                fraction = (float) (totalTime / (double) mSelectAnimatorDurationInUse);
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFramePosted = false;
+            // backwards, so that a removal only moves an animation already stepped
+            for (int i = mCount - 1; i >= 0; i--) {
+                if (mStartTimes[i] < 0) {
+                    mStartTimes[i] = frameTimeNanos;
+                }
+                long totalTime = (frameTimeNanos - mStartTimes[i]) / 1000000;
+                boolean ended = totalTime >= mDurations[i];
+                float fraction = ended ? 1 : (float) (totalTime / (double) mDurations[i]);
+                if (mInterpolators[i] != null) {
+                    fraction = mInterpolators[i].getInterpolation(fraction);
+                }
+                ItemBridgeAdapter.ViewHolder vh = mViewHolders[i];
+                ((RowPresenter) vh.getPresenter()).setSelectLevel(vh.getViewHolder(),
+                        mStartLevels[i] + fraction * mLevelDeltas[i]);
+                if (ended) {
+                    remove(i);
+                }
             }
-            if (mSelectAnimatorInterpolatorInUse != null) {
-                fraction = mSelectAnimatorInterpolatorInUse.getInterpolation(fraction);
+            if (mCount > 0) {
+                mFramePosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
             }
-            float level =  mSelectLevelAnimStart + fraction * mSelectLevelAnimDelta;
-            mRowPresenter.setSelectLevel(mRowViewHolder, level);
         }
 
-        void animateSelect(boolean select, boolean immediate) {
-            mSelectAnimator.end();
-            final float end = select ? 1 : 0;
-            if (immediate) {
-                mRowPresenter.setSelectLevel(mRowViewHolder, end);
-            } else if (mRowPresenter.getSelectLevel(mRowViewHolder) != end) {
-                mSelectAnimatorDurationInUse = mSelectAnimatorDuration;
-                mSelectAnimatorInterpolatorInUse = mSelectAnimatorInterpolator;
-                mSelectLevelAnimStart = mRowPresenter.getSelectLevel(mRowViewHolder);
-                mSelectLevelAnimDelta = end - mSelectLevelAnimStart;
-                mSelectAnimator.start();
-            }
+        private void remove(int index) {
+            // the last animation takes the freed slot
+            int last = --mCount;
+            mViewHolders[index] = mViewHolders[last];
+            mInterpolators[index] = mInterpolators[last];
+            mStartTimes[index] = mStartTimes[last];
+            mDurations[index] = mDurations[last];
+            mStartLevels[index] = mStartLevels[last];
+            mLevelDeltas[index] = mLevelDeltas[last];
+            mViewHolders[last] = null;
+            mInterpolators[last] = null;
         }
 
+        private void ensureCapacity(int capacity) {
+            if (capacity > mViewHolders.length) {
+                int length = mViewHolders.length * 2;
+                mViewHolders = Arrays.copyOf(mViewHolders, length);
+                mInterpolators = Arrays.copyOf(mInterpolators, length);
+                mStartTimes = Arrays.copyOf(mStartTimes, length);
+                mDurations = Arrays.copyOf(mDurations, length);
+                mStartLevels = Arrays.copyOf(mStartLevels, length);
+                mLevelDeltas = Arrays.copyOf(mLevelDeltas, length);
+            }
+        }
     }
 
     private static final String TAG = "RowsFragment";
@@ -116,8 +179,11 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
     private float mRowScaleFactor;
     private int mAlignedTop;
     private boolean mRowScaleEnabled;
+    private boolean mLiteRendering;
     private ScaleFrameLayout mScaleFrameLayout;
     private boolean mInTransition;
+    // rows frozen by a transition are drawn from layers until it ends
+    private final HardwareLayers mFrozenRowLayers = new HardwareLayers();
     private boolean mAfterEntranceTransition = true;
     private int extraMarginTop;
     private int extraMarginLeft;
@@ -130,11 +196,18 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
     // animation later.
     int mSelectAnimatorDuration;
     Interpolator mSelectAnimatorInterpolator = new DecelerateInterpolator(2);
+    private final SelectLevelAnimator mSelectLevelAnimator = new SelectLevelAnimator();
 
     private RecyclerView.RecycledViewPool mRecycledViewPool;
     private ArrayList<Presenter> mPresenterMapper;
+    private SharedViewPool mSharedViewPool;
+    private int mPrewarmViewHolderCount;
+    private final PrewarmViewHoldersHandler mPrewarmViewHoldersHandler =
+            new PrewarmViewHoldersHandler();
 
     private ItemBridgeAdapter.AdapterListener mExternalAdapterListener;
+    // selected item to restore in each list row, by row position, when the row gets bound
+    private final SparseIntArray mPendingItemPositions = new SparseIntArray();
 
     @Override
     protected VerticalGridView findGridViewFromRoot(View view) {
@@ -184,19 +257,8 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
      * Sets an item selection listener.
      */
     public void setOnItemViewSelectedListener(OnItemViewSelectedListener listener) {
+        // rows always report to mRowItemSelectedListener, which forwards to this one
         mOnItemViewSelectedListener = listener;
-        VerticalGridView listView = getVerticalGridView();
-        if (listView != null) {
-            final int count = listView.getChildCount();
-            for (int i = 0; i < count; i++) {
-                View view = listView.getChildAt(i);
-                ItemBridgeAdapter.ViewHolder ibvh = (ItemBridgeAdapter.ViewHolder)
-                        listView.getChildViewHolder(view);
-                RowPresenter rowPresenter = (RowPresenter) ibvh.getPresenter();
-                RowPresenter.ViewHolder vh = rowPresenter.getRowViewHolder(ibvh.getViewHolder());
-                vh.setOnItemViewSelectedListener(mOnItemViewSelectedListener);
-            }
-        }
     }
 
     /**
@@ -215,9 +277,64 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         mRowScaleEnabled = enable;
     }
 
+    /**
+     * Sets whether rows are rendered with fewer effects, for low-end devices. Rows are
+     * then never scaled, whatever {@link #enableRowScaling(boolean)} says, and their
+     * select level changes without animation.
+     */
+    public void setLiteRendering(boolean lite) {
+        if (mLiteRendering == lite) {
+            return;
+        }
+        mLiteRendering = lite;
+        if (getVerticalGridView() != null) {
+            updateRowScaling();
+        }
+    }
+
+    /**
+     * Returns whether rows are rendered with fewer effects.
+     */
+    public boolean isLiteRendering() {
+        return mLiteRendering;
+    }
+
+    /**
+     * Creates up to the given number of item view holders for every presenter of the
+     * rows ahead of time, so that the first scroll of a row does not pay for creating
+     * them. View holders are created one at a time while the main thread is idle after
+     * the first frame, and are kept in the recycled view pool of the rows.
+     * <p>
+     * Unless the fragment shares the view pool of a {@link BrowseFragment}, this must be
+     * called before views are created.
+     *
+     * @param count The number of view holders per presenter, 0 to disable.
+     */
+    public void prewarmViewHolders(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid view holder count: " + count);
+        }
+        if (mSharedViewPool == null && count > 0) {
+            if (mViewsCreated) {
+                throw new IllegalStateException(
+                        "View holders must be prewarmed before views are created");
+            }
+            mSharedViewPool = new SharedViewPool();
+        }
+        mPrewarmViewHolderCount = count;
+        if (count == 0) {
+            mPrewarmViewHoldersHandler.cancel();
+        } else if (getView() != null) {
+            mPrewarmViewHoldersHandler.schedule();
+        }
+    }
+
     @Override
     void onRowSelected(RecyclerView parent, RecyclerView.ViewHolder viewHolder,
             int position, int subposition) {
+        if (getAdapter() instanceof PagedObjectAdapter) {
+            ((PagedObjectAdapter) getAdapter()).onItemSelected(position);
+        }
         if (mSelectedViewHolder != viewHolder || mSubPosition != subposition) {
             if (DEBUG) Log.v(TAG, "new row selected position " + position + " subposition "
                     + subposition + " view " + viewHolder.itemView);
@@ -249,8 +366,10 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
+        TraceSections.begin("RowsFragment.onCreateView");
         View view = super.onCreateView(inflater, container, savedInstanceState);
         mScaleFrameLayout = (ScaleFrameLayout) view.findViewById(R.id.scale_frame);
+        TraceSections.end();
         return view;
     }
 
@@ -279,6 +398,10 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
             setScalePivots(0, extraMarginTop);
         }
 
+        if (mPrewarmViewHolderCount > 0) {
+            mPrewarmViewHoldersHandler.schedule();
+        }
+
         mRecycledViewPool = null;
         mPresenterMapper = null;
     }
@@ -286,6 +409,8 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
     @Override
     public void onDestroyView() {
         mViewsCreated = false;
+        mPrewarmViewHoldersHandler.cancel();
+        mSelectLevelAnimator.cancelAll();
         super.onDestroyView();
     }
 
@@ -301,6 +426,95 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         mExternalAdapterListener = listener;
     }
 
+    /**
+     * Makes the rows of this fragment use a pool shared with other fragments instead of
+     * one of their own. Must be called before views are created.
+     */
+    void setSharedViewPool(SharedViewPool pool) {
+        mSharedViewPool = pool;
+    }
+
+    /**
+     * Returns whether the rows or the items of a row are scrolling.
+     */
+    boolean isRowScrolling() {
+        VerticalGridView verticalView = getVerticalGridView();
+        if (verticalView == null) {
+            return false;
+        }
+        if (verticalView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+            return true;
+        }
+        for (int i = 0, count = verticalView.getChildCount(); i < count; i++) {
+            ItemBridgeAdapter.ViewHolder ibvh = (ItemBridgeAdapter.ViewHolder)
+                    verticalView.getChildViewHolder(verticalView.getChildAt(i));
+            RowPresenter rowPresenter = (RowPresenter) ibvh.getPresenter();
+            RowPresenter.ViewHolder vh = rowPresenter.getRowViewHolder(ibvh.getViewHolder());
+            if (vh instanceof ListRowPresenter.ViewHolder && ((ListRowPresenter.ViewHolder) vh)
+                    .getGridView().getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the selected row followed by the position and the selected item of each
+     * list row in the list, {selectedRow, row, item, row, item...}, or null if there are
+     * no rows yet.
+     */
+    int[] savePositions() {
+        VerticalGridView verticalView = getVerticalGridView();
+        if (verticalView == null || verticalView.getAdapter() == null) {
+            return null;
+        }
+        int count = verticalView.getChildCount();
+        int[] positions = new int[1 + count * 2];
+        positions[0] = verticalView.getSelectedPosition();
+        int size = 1;
+        for (int i = 0; i < count; i++) {
+            ItemBridgeAdapter.ViewHolder ibvh = (ItemBridgeAdapter.ViewHolder)
+                    verticalView.getChildViewHolder(verticalView.getChildAt(i));
+            RowPresenter rowPresenter = (RowPresenter) ibvh.getPresenter();
+            RowPresenter.ViewHolder vh = rowPresenter.getRowViewHolder(ibvh.getViewHolder());
+            int row = ibvh.getAdapterPosition();
+            if (row != RecyclerView.NO_POSITION && vh instanceof ListRowPresenter.ViewHolder) {
+                positions[size++] = row;
+                positions[size++] = ((ListRowPresenter.ViewHolder) vh).getGridView()
+                        .getSelectedPosition();
+            }
+        }
+        return size == positions.length ? positions : Arrays.copyOf(positions, size);
+    }
+
+    /**
+     * Jumps to positions returned by {@link #savePositions()}, without scrolling through
+     * the rows and the items before them. The items of a row are restored when the row
+     * gets bound, before its first layout.
+     */
+    void restorePositions(int[] positions) {
+        mPendingItemPositions.clear();
+        for (int i = 1; i + 1 < positions.length; i += 2) {
+            mPendingItemPositions.put(positions[i], positions[i + 1]);
+        }
+        if (positions[0] != RecyclerView.NO_POSITION) {
+            setSelectedPosition(positions[0], false);
+        }
+    }
+
+    /**
+     * Drops the states saved for rows that scrolled out of the list, e.g. the
+     * positions of their items.
+     */
+    void clearSavedRowStates() {
+        VerticalGridView verticalView = getVerticalGridView();
+        if (verticalView != null) {
+            // saved states are discarded when saving gets disabled
+            verticalView.setSaveChildrenPolicy(VerticalGridView.SAVE_NO_CHILD);
+            verticalView.setSaveChildrenPolicy(VerticalGridView.SAVE_LIMITED_CHILD);
+        }
+    }
+
     /**
      * Returns the view that will change scale.
      */
@@ -322,13 +536,32 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         ((RowPresenter) vh.getPresenter()).setRowViewExpanded(vh.getViewHolder(), expanded);
     }
 
-    private static void setRowViewSelected(ItemBridgeAdapter.ViewHolder vh, boolean selected,
+    private void setRowViewSelected(ItemBridgeAdapter.ViewHolder vh, boolean selected,
             boolean immediate) {
-        RowViewHolderExtra extra = (RowViewHolderExtra) vh.getExtraObject();
-        extra.animateSelect(selected, immediate);
+        mSelectLevelAnimator.animateSelect(vh, selected, immediate || mLiteRendering);
         ((RowPresenter) vh.getPresenter()).setRowViewSelected(vh.getViewHolder(), selected);
     }
 
+    // reports the selected item of paged rows, then calls the listener of the app
+    private final OnItemViewSelectedListener mRowItemSelectedListener =
+            new OnItemViewSelectedListener() {
+        @Override
+        public void onItemSelected(Presenter.ViewHolder itemViewHolder, Object item,
+                RowPresenter.ViewHolder rowViewHolder, Row row) {
+            if (row instanceof ListRow
+                    && ((ListRow) row).getAdapter() instanceof PagedObjectAdapter
+                    && rowViewHolder instanceof ListRowPresenter.ViewHolder) {
+                int position = ((ListRowPresenter.ViewHolder) rowViewHolder).getGridView()
+                        .getSelectedPosition();
+                ((PagedObjectAdapter) ((ListRow) row).getAdapter()).onItemSelected(position);
+            }
+            if (mOnItemViewSelectedListener != null) {
+                mOnItemViewSelectedListener.onItemSelected(itemViewHolder, item,
+                        rowViewHolder, row);
+            }
+        }
+    };
+
     private final ItemBridgeAdapter.AdapterListener mBridgeAdapterListener =
             new ItemBridgeAdapter.AdapterListener() {
         @Override
@@ -346,7 +579,6 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
             }
             setupSharedViewPool(vh);
             mViewsCreated = true;
-            vh.setExtraObject(new RowViewHolderExtra(vh));
             // selected state is initialized to false, then driven by grid view onChildSelected
             // events.  When there is rebind, grid view fires onChildSelected event properly.
             // So we don't need do anything special later in onBind or onAttachedToWindow.
@@ -366,7 +598,7 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
             setRowViewExpanded(vh, mExpand);
             RowPresenter rowPresenter = (RowPresenter) vh.getPresenter();
             RowPresenter.ViewHolder rowVh = rowPresenter.getRowViewHolder(vh.getViewHolder());
-            rowVh.setOnItemViewSelectedListener(mOnItemViewSelectedListener);
+            rowVh.setOnItemViewSelectedListener(mRowItemSelectedListener);
             rowVh.setOnItemViewClickedListener(mOnItemViewClickedListener);
             rowPresenter.setEntranceTransitionState(rowVh, mAfterEntranceTransition);
             if (mExternalAdapterListener != null) {
@@ -385,6 +617,10 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         }
         @Override
         public void onBind(ItemBridgeAdapter.ViewHolder vh) {
+            restoreItemPosition(vh);
+            if (vh.getItem() instanceof ListRow) {
+                startPaging(((ListRow) vh.getItem()).getAdapter());
+            }
             if (mExternalAdapterListener != null) {
                 mExternalAdapterListener.onBind(vh);
             }
@@ -398,12 +634,101 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         }
     };
 
+    // requests the first page of paged rows or items once they are displayed
+    private static void startPaging(ObjectAdapter adapter) {
+        if (adapter instanceof PagedObjectAdapter) {
+            ((PagedObjectAdapter) adapter).start();
+        }
+    }
+
+    private void restoreItemPosition(ItemBridgeAdapter.ViewHolder vh) {
+        // the adapter position may not be known yet while binding
+        int index = mPendingItemPositions.indexOfKey(vh.getLayoutPosition());
+        if (index < 0) {
+            return;
+        }
+        int position = mPendingItemPositions.valueAt(index);
+        mPendingItemPositions.removeAt(index);
+        RowPresenter rowPresenter = (RowPresenter) vh.getPresenter();
+        RowPresenter.ViewHolder rowVh = rowPresenter.getRowViewHolder(vh.getViewHolder());
+        if (rowVh instanceof ListRowPresenter.ViewHolder && position != RecyclerView.NO_POSITION) {
+            // the grid has not been laid out since its adapter was set, so it starts there
+            ((ListRowPresenter.ViewHolder) rowVh).getGridView().setSelectedPosition(position);
+        }
+    }
+
+    /**
+     * Creates view holders for the shared view pool in idle time, starting after the
+     * next frame so that the first frame of the fragment is not delayed.
+     */
+    private final class PrewarmViewHoldersHandler implements Choreographer.FrameCallback,
+            MessageQueue.IdleHandler {
+        private boolean mScheduled;
+
+        void schedule() {
+            if (!mScheduled) {
+                mScheduled = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void cancel() {
+            if (mScheduled) {
+                mScheduled = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+                Looper.myQueue().removeIdleHandler(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // idle handlers run once this frame has been drawn
+            Looper.myQueue().addIdleHandler(this);
+        }
+
+        @Override
+        public boolean queueIdle() {
+            if (mInTransition || isScrolling()) {
+                return true;
+            }
+            ListRowPresenter.ViewHolder rowVh = findListRowViewHolder();
+            if (rowVh == null) {
+                // no row to create the views in yet
+                return true;
+            }
+            mScheduled = mSharedViewPool.prewarmViewHolder(rowVh.getGridView(),
+                    rowVh.getBridgeAdapter(), mPrewarmViewHolderCount);
+            return mScheduled;
+        }
+    }
+
+    private ListRowPresenter.ViewHolder findListRowViewHolder() {
+        VerticalGridView verticalView = getVerticalGridView();
+        for (int i = 0, count = verticalView.getChildCount(); i < count; i++) {
+            ItemBridgeAdapter.ViewHolder ibvh = (ItemBridgeAdapter.ViewHolder)
+                    verticalView.getChildViewHolder(verticalView.getChildAt(i));
+            RowPresenter rowPresenter = (RowPresenter) ibvh.getPresenter();
+            RowPresenter.ViewHolder vh = rowPresenter.getRowViewHolder(ibvh.getViewHolder());
+            if (vh instanceof ListRowPresenter.ViewHolder) {
+                return (ListRowPresenter.ViewHolder) vh;
+            }
+        }
+        return null;
+    }
+
     private void setupSharedViewPool(ItemBridgeAdapter.ViewHolder bridgeVh) {
         RowPresenter rowPresenter = (RowPresenter) bridgeVh.getPresenter();
         RowPresenter.ViewHolder rowVh = rowPresenter.getRowViewHolder(bridgeVh.getViewHolder());
 
         if (rowVh instanceof ListRowPresenter.ViewHolder) {
             HorizontalGridView view = ((ListRowPresenter.ViewHolder) rowVh).getGridView();
+            ItemBridgeAdapter bridgeAdapter =
+                    ((ListRowPresenter.ViewHolder) rowVh).getBridgeAdapter();
+            if (mSharedViewPool != null) {
+                mSharedViewPool.join(view, bridgeAdapter);
+                return;
+            }
+
             // Recycled view pool is shared between all list rows
             if (mRecycledViewPool == null) {
                 mRecycledViewPool = view.getRecycledViewPool();
@@ -411,8 +736,6 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
                 view.setRecycledViewPool(mRecycledViewPool);
             }
 
-            ItemBridgeAdapter bridgeAdapter =
-                    ((ListRowPresenter.ViewHolder) rowVh).getBridgeAdapter();
             if (mPresenterMapper == null) {
                 mPresenterMapper = bridgeAdapter.getPresenterMapper();
             } else {
@@ -423,6 +746,7 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
 
     @Override
     void updateAdapter() {
+        TraceSections.begin("RowsFragment.updateAdapter");
         super.updateAdapter();
         mSelectedViewHolder = null;
         mViewsCreated = false;
@@ -431,6 +755,8 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         if (adapter != null) {
             adapter.setAdapterListener(mBridgeAdapterListener);
         }
+        startPaging(getAdapter());
+        TraceSections.end();
     }
 
     @Override
@@ -440,54 +766,40 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
         freezeRows(true);
     }
 
-    class ExpandPreLayout implements ViewTreeObserver.OnPreDrawListener {
-
-        final View mVerticalView;
-        final Runnable mCallback;
-        int mState;
-
-        final static int STATE_INIT = 0;
-        final static int STATE_FIRST_DRAW = 1;
-        final static int STATE_SECOND_DRAW = 2;
-
-        ExpandPreLayout(Runnable callback) {
-            mVerticalView = getVerticalGridView();
-            mCallback = callback;
-        }
-
-        void execute() {
-            mVerticalView.getViewTreeObserver().addOnPreDrawListener(this);
-            setExpand(false);
-            mState = STATE_INIT;
-        }
-
-        @Override
-        public boolean onPreDraw() {
-            if (mState == STATE_INIT) {
-                setExpand(true);
-                mState = STATE_FIRST_DRAW;
-            } else if (mState == STATE_FIRST_DRAW) {
-                mCallback.run();
-                mVerticalView.getViewTreeObserver().removeOnPreDrawListener(this);
-                mState = STATE_SECOND_DRAW;
-            }
-            return false;
+    void onExpandTransitionStart(boolean expand, final Runnable callback) {
+        onTransitionStart();
+        if (!expand) {
+            // Run a "pre" layout when we go non-expand, in order to get the initial
+            // positions of added rows.
+            preLayoutCollapsed();
         }
+        callback.run();
     }
 
-    void onExpandTransitionStart(boolean expand, final Runnable callback) {
-        onTransitionStart();
-        if (expand) {
-            callback.run();
+    /**
+     * Lays the rows out collapsed then expanded again, right away instead of over the
+     * next frames, so that the rows the collapsed layout adds are bound before the
+     * transition starts and no frame is skipped.
+     */
+    private void preLayoutCollapsed() {
+        View root = getView();
+        if (root == null || root.getWidth() == 0 || root.getHeight() == 0) {
             return;
         }
-        // Run a "pre" layout when we go non-expand, in order to get the initial
-        // positions of added rows.
-        new ExpandPreLayout(callback).execute();
+        setExpand(false);
+        layoutInPlace(root);
+        setExpand(true);
+        layoutInPlace(root);
+    }
+
+    private static void layoutInPlace(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(view.getWidth(), View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(view.getHeight(), View.MeasureSpec.EXACTLY));
+        view.layout(view.getLeft(), view.getTop(), view.getRight(), view.getBottom());
     }
 
     private boolean needsScale() {
-        return mRowScaleEnabled && !mExpand;
+        return mRowScaleEnabled && !mExpand && !mLiteRendering;
     }
 
     private void updateRowScaling() {
@@ -536,8 +848,14 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
                 RowPresenter rowPresenter = (RowPresenter) ibvh.getPresenter();
                 RowPresenter.ViewHolder vh = rowPresenter.getRowViewHolder(ibvh.getViewHolder());
                 rowPresenter.freeze(vh, freeze);
+                if (freeze) {
+                    mFrozenRowLayers.add(ibvh.itemView);
+                }
             }
         }
+        if (!freeze) {
+            mFrozenRowLayers.release();
+        }
     }
 
     /**
@@ -561,7 +879,9 @@ public class RowsFragment extends BaseRowFragment implements ContentFragment {
 
     @Override
     public boolean isScrolling() {
-        return false;
+        VerticalGridView verticalView = getVerticalGridView();
+        return verticalView != null
+                && verticalView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE;
     }
 
     @Override
@@ -0,0 +1,169 @@
+package com.sgottard.sofa;
+
+import android.support.v17.leanback.widget.ItemBridgeAdapter;
+import android.support.v17.leanback.widget.Presenter;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A pool of item views shared by the rows of every {@link RowsFragment} hosted by a
+ * {@link BrowseFragment}, so that card views released by one content fragment are reused
+ * by the next one instead of being inflated again.
+ * <p>
+ * The pool also owns the presenter mapper of the rows, which keeps the view type of a
+ * {@link Presenter} the same in every row that joins the pool.
+ */
+public class SharedViewPool {
+
+    /**
+     * Default number of views kept for each presenter, the default of RecyclerView.
+     */
+    public static final int DEFAULT_MAX_RECYCLED_VIEWS = 5;
+
+    private final RecyclerView.RecycledViewPool mRecycledViewPool =
+            new RecyclerView.RecycledViewPool();
+    private final ArrayList<Presenter> mPresenterMapper = new ArrayList<Presenter>();
+    private final HashMap<Presenter, Integer> mMaxRecycledViews = new HashMap<Presenter, Integer>();
+    private int mDefaultMaxRecycledViews = DEFAULT_MAX_RECYCLED_VIEWS;
+    private int mRecycledViewsLimit = Integer.MAX_VALUE;
+    // view holders per presenter asked for by prewarmViewHolder(), kept beyond the default
+    private int mPrewarmCount;
+    // view holders created ahead of time, by view type
+    private final SparseIntArray mPrewarmedCounts = new SparseIntArray();
+
+    /**
+     * Makes a row use this pool and presenter mapper. Must be called before the row
+     * adapter creates any view.
+     */
+    public void join(RecyclerView view, ItemBridgeAdapter bridgeAdapter) {
+        view.setRecycledViewPool(mRecycledViewPool);
+        bridgeAdapter.setPresenterMapper(mPresenterMapper);
+        // presenters may have been added by rows bound since the last join
+        applyMaxRecycledViews();
+    }
+
+    /**
+     * Sets how many views created by the given presenter are kept in the pool.
+     */
+    public void setMaxRecycledViews(Presenter presenter, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid max recycled views: " + max);
+        }
+        mMaxRecycledViews.put(presenter, max);
+        if (mPresenterMapper.indexOf(presenter) < 0) {
+            // registers the view type ahead of the rows, as ItemBridgeAdapter would
+            mPresenterMapper.add(presenter);
+        }
+        applyMaxRecycledViews();
+    }
+
+    /**
+     * Sets how many views are kept in the pool for presenters without a specific
+     * limit. The default is {@link #DEFAULT_MAX_RECYCLED_VIEWS}, raised to the number of
+     * view holders created ahead of time if greater.
+     */
+    public void setDefaultMaxRecycledViews(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid max recycled views: " + max);
+        }
+        mDefaultMaxRecycledViews = max;
+        applyMaxRecycledViews();
+    }
+
+    /**
+     * Returns how many views are kept for presenters without a specific limit.
+     */
+    public int getDefaultMaxRecycledViews() {
+        return mDefaultMaxRecycledViews;
+    }
+
+    /**
+     * Caps the number of views kept for every presenter, whatever its own limit, e.g.
+     * to keep fewer views on low-RAM devices. Integer.MAX_VALUE, the default, removes
+     * the cap.
+     */
+    public void setRecycledViewsLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid recycled views limit: " + limit);
+        }
+        mRecycledViewsLimit = limit;
+        applyMaxRecycledViews();
+    }
+
+    /**
+     * Returns the cap on the number of views kept for every presenter.
+     */
+    public int getRecycledViewsLimit() {
+        return mRecycledViewsLimit;
+    }
+
+    /**
+     * Drops every pooled view, rows create new ones as they need them. Prewarming
+     * creates view holders again from scratch.
+     */
+    public void clear() {
+        mRecycledViewPool.clear();
+        mPrewarmedCounts.clear();
+    }
+
+    /**
+     * Returns the recycled view pool shared by the rows.
+     */
+    public RecyclerView.RecycledViewPool getRecycledViewPool() {
+        return mRecycledViewPool;
+    }
+
+    /**
+     * Returns the presenters known to the pool, indexed by view type.
+     */
+    public ArrayList<Presenter> getPresenterMapper() {
+        return mPresenterMapper;
+    }
+
+    /**
+     * Creates one view holder for the first presenter that has fewer than the given
+     * number of view holders created ahead of time, and puts it in the pool. A row that
+     * joined this pool provides the parent and the adapter creating the view holder.
+     * <p>
+     * Presenters without a specific limit keep at least the given number of views, within
+     * the cap of {@link #setRecycledViewsLimit(int)}.
+     *
+     * @return false if every presenter already has its view holders.
+     */
+    public boolean prewarmViewHolder(RecyclerView row, ItemBridgeAdapter bridgeAdapter,
+            int count) {
+        if (count > mPrewarmCount) {
+            mPrewarmCount = count;
+            applyMaxRecycledViews();
+        }
+        for (int type = 0, size = mPresenterMapper.size(); type < size; type++) {
+            int prewarmed = mPrewarmedCounts.get(type);
+            int max = getMaxRecycledViews(type);
+            if (prewarmed < Math.min(count, max)) {
+                if (prewarmed == 0) {
+                    // a type first seen after the last join still has the pool default
+                    mRecycledViewPool.setMaxRecycledViews(type, max);
+                }
+                mRecycledViewPool.putRecycledView(bridgeAdapter.createViewHolder(row, type));
+                mPrewarmedCounts.put(type, prewarmed + 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getMaxRecycledViews(int type) {
+        Integer max = mMaxRecycledViews.get(mPresenterMapper.get(type));
+        return Math.min(max != null ? max : Math.max(mDefaultMaxRecycledViews, mPrewarmCount),
+                mRecycledViewsLimit);
+    }
+
+    private void applyMaxRecycledViews() {
+        for (int type = 0, size = mPresenterMapper.size(); type < size; type++) {
+            mRecycledViewPool.setMaxRecycledViews(type, getMaxRecycledViews(type));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.sgottard.sofa;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Trace sections around the startup work of the browse fragments, shown by systrace under
+ * the names given to {@link #begin(String)}. Sections are ignored before API 18.
+ * <p>
+ * Sections must be nested, and begun and ended on the same thread.
+ *
+ * @hide
+ */
+public final class TraceSections {
+
+    private TraceSections() {
+    }
+
+    /**
+     * Begins a section, to be ended by {@link #end()} on the same thread.
+     */
+    public static void begin(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * Ends the last section begun on the current thread.
+     */
+    public static void end() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.sgottard.sofa;
+
+/**
+ * A {@link ContentFragment} that takes part in the transitions of {@link BrowseFragment}
+ * the way its rows fragments do: it is frozen while the headers or the entrance
+ * transition run, expanded when the headers hide and told about its entrance state.
+ */
+public interface TransitionAwareContentFragment extends ContentFragment {
+
+    /**
+     * Called before a transition involving the content starts. Content should stop
+     * updating its views, e.g. pause animations, until {@link #onTransitionEnd()}.
+     */
+    void onTransitionStart();
+
+    /**
+     * Called once the transition has ended.
+     */
+    void onTransitionEnd();
+
+    /**
+     * Sets whether the content takes the whole width, because the headers are hidden.
+     */
+    void setExpand(boolean expand);
+
+    /**
+     * Sets the views of the content to their state before the entrance transition if
+     * afterTransition is false, or to their final state otherwise.
+     */
+    void setEntranceTransitionState(boolean afterTransition);
+}
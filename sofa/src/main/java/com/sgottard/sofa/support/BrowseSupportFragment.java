@@ -15,10 +15,18 @@
  */
 package com.sgottard.sofa.support;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.graphics.Rect;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.support.v17.leanback.transition.TransitionListener;
 import android.support.v17.leanback.widget.BrowseFrameLayout;
 import android.support.v17.leanback.widget.HorizontalGridView;
@@ -38,15 +46,30 @@ import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentManager.BackStackEntry;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.view.ViewGroup.MarginLayoutParams;
+import android.view.ViewTreeObserver;
 
+import com.sgottard.sofa.AsyncViewInflater;
 import com.sgottard.sofa.ContentFragment;
+import com.sgottard.sofa.ContentFragmentProvider;
+import com.sgottard.sofa.FrameMonitor;
+import com.sgottard.sofa.HardwareLayers;
+import com.sgottard.sofa.QualityGovernor;
 import com.sgottard.sofa.R;
+import com.sgottard.sofa.SharedViewPool;
+import com.sgottard.sofa.TraceSections;
+import com.sgottard.sofa.TransitionAwareContentFragment;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import static android.support.v7.widget.RecyclerView.NO_POSITION;
 
@@ -78,6 +101,8 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     static final String HEADER_STACK_INDEX = "headerStackIndex";
     // BUNDLE attribute for saving header show/hide status when backstack is not used:
     static final String HEADER_SHOW = "headerShow";
+    // BUNDLE attribute for saving the header position of the displayed content:
+    static final String CONTENT_POSITION = "contentPosition";
 
 
     final class BackStackListener implements FragmentManager.OnBackStackChangedListener {
@@ -155,6 +180,22 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         }
     }
 
+    /**
+     * Listener for the startup time of the fragment.
+     */
+    public interface OnFirstFocusListener {
+        /**
+         * Called once, before drawing the first frame in which a header or an item of the
+         * content holds focus.
+         *
+         * @param sinceCreateMillis Time elapsed since {@link BrowseSupportFragment#onCreate(Bundle)}.
+         * @param sinceAdapterMillis Time elapsed since the adapter was first set. Set once
+         *        the rows are loaded, the difference with sinceCreateMillis is the time the
+         *        app took to load them.
+         */
+        void onFirstFocus(long sinceCreateMillis, long sinceAdapterMillis);
+    }
+
     private class SetSelectionRunnable implements Runnable {
         static final int TYPE_INVALID = -1;
         static final int TYPE_INTERNAL_SYNC = 0;
@@ -196,9 +237,103 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         }
     }
 
+    /**
+     * A content fragment kept attached to the container dock while hidden, together
+     * with the headers state that was last applied to it.
+     */
+    static final class CachedContent {
+        final ContentFragment mFragment;
+        boolean mShowingHeaders;
+
+        CachedContent(ContentFragment fragment, boolean showingHeaders) {
+            mFragment = fragment;
+            mShowingHeaders = showingHeaders;
+        }
+    }
+
+    private class SwitchContentRunnable implements Runnable {
+        private int mPosition = NO_POSITION;
+
+        void post(int position) {
+            mPosition = position;
+            mBrowseFrame.removeCallbacks(this);
+            mBrowseFrame.postDelayed(this, mContentSwitchDelay);
+        }
+
+        boolean isPending() {
+            return mPosition != NO_POSITION;
+        }
+
+        void cancel() {
+            if (mBrowseFrame != null) {
+                mBrowseFrame.removeCallbacks(this);
+            }
+            mPosition = NO_POSITION;
+        }
+
+        @Override
+        public void run() {
+            int position = mPosition;
+            mPosition = NO_POSITION;
+            switchContent(position);
+            setContentPlaceholderShown(false);
+        }
+    }
+
+    /**
+     * Creates the content fragments around the selected header while the main thread
+     * is idle, one fragment per idle slice. A prefetched fragment is first laid out
+     * invisible so that its rows get bound, then hidden on the following slice.
+     */
+    private class PrefetchContentHandler implements MessageQueue.IdleHandler {
+        private int mCenter = NO_POSITION;
+        private boolean mRegistered;
+
+        void schedule(int center) {
+            mCenter = center;
+            if (!mRegistered && getEffectivePrefetchRadius() > 0) {
+                mRegistered = true;
+                Looper.myQueue().addIdleHandler(this);
+            }
+        }
+
+        void cancel() {
+            if (mRegistered) {
+                mRegistered = false;
+                Looper.myQueue().removeIdleHandler(this);
+            }
+        }
+
+        @Override
+        public boolean queueIdle() {
+            if (getView() == null || getChildFragmentManager().isDestroyed()) {
+                mRegistered = false;
+                return false;
+            }
+            if (isInHeadersTransition() || mSwitchContentRunnable.isPending()
+                    || isVerticalScrolling()) {
+                // the user is still moving, try again on the next idle slice
+                return true;
+            }
+            if (hidePrefetchedContent()) {
+                return true;
+            }
+            final int radius = getEffectivePrefetchRadius();
+            for (int distance = 1; distance <= radius; distance++) {
+                if (prefetchContent(mCenter + distance) || prefetchContent(mCenter - distance)) {
+                    return true;
+                }
+            }
+            mRegistered = false;
+            return false;
+        }
+    }
+
     private static final String TAG = "BrowseSupportFragment";
 
     private static final String LB_HEADERS_BACKSTACK = "lbHeadersBackStack_";
+    // tag of a content fragment added to the container dock, followed by its header position
+    private static final String CONTENT_TAG = "lbContent_";
 
     private static boolean DEBUG = false;
 
@@ -211,6 +346,28 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     /** The headers fragment is disabled and will never be shown. */
     public static final int HEADERS_DISABLED = 3;
 
+    /** Default number of content fragments kept alive across header switches. */
+    public static final int DEFAULT_CONTENT_CACHE_SIZE = 3;
+
+    /** Default number of neighbouring headers whose content is created ahead of time. */
+    public static final int DEFAULT_CONTENT_PREFETCH_RADIUS = 1;
+
+    /** The rendering profile is chosen from the memory of the device. */
+    public static final int RENDERING_PROFILE_AUTO = 0;
+
+    /** Every effect is rendered. */
+    public static final int RENDERING_PROFILE_FULL = 1;
+
+    /** Effects are turned off and caches are shrunk, for low-RAM devices. */
+    public static final int RENDERING_PROFILE_LITE = 2;
+
+    // devices with no more heap than this get the lite profile, even if not low-RAM
+    private static final int LITE_MEMORY_CLASS_MB = 64;
+    private static final int LITE_CONTENT_CACHE_SIZE = 1;
+    private static final int LITE_MAX_RECYCLED_VIEWS = 8;
+    // duration of the headers transitions from QualityGovernor.QUALITY_REDUCED
+    private static final int REDUCED_HEADERS_TRANSITION_DURATION_MS = 150;
+
     private ContentFragment mCurrentFragment;
     private RowsSupportFragment mRowsSupportFragment;
     private HeadersSupportFragment mHeadersSupportFragment;
@@ -229,6 +386,16 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     private int mContainerListMarginStart;
     private int mContainerListAlignTop;
     private boolean mRowScaleEnabled = true;
+    private int mRenderingProfile = RENDERING_PROFILE_AUTO;
+    private boolean mLiteRendering;
+    private final QualityGovernor mQualityGovernor = new QualityGovernor();
+    private boolean mAdaptiveQualityEnabled;
+    // the level of the governor, once applied outside of transitions
+    private int mQualityLevel = QualityGovernor.QUALITY_FULL;
+    private boolean mInEntranceTransition;
+    // prepareEntranceTransition() called before onCreate(), when the profile is unknown
+    private boolean mEntranceTransitionDeferred;
+    private FrameMonitor.OnFrameMetricsListener mExternalFrameMetricsListener;
     private OnItemViewSelectedListener mExternalOnItemViewSelectedListener;
     private OnItemViewClickedListener mOnItemViewClickedListener;
     private int mSelectedPosition = -1;
@@ -236,6 +403,68 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     private PresenterSelector mHeaderPresenterSelector;
     private final SetSelectionRunnable mSetSelectionRunnable = new SetSelectionRunnable();
 
+    // content fragments currently added to the container dock, least recently shown first
+    private final LinkedHashMap<Row, CachedContent> mContentCache =
+            new LinkedHashMap<Row, CachedContent>(8, 0.75f, true);
+    private int mContentCacheSize = DEFAULT_CONTENT_CACHE_SIZE;
+    private int mContentSwitchDelay;
+    private final SwitchContentRunnable mSwitchContentRunnable = new SwitchContentRunnable();
+    private int mContentPrefetchRadius = DEFAULT_CONTENT_PREFETCH_RADIUS;
+    private final PrefetchContentHandler mPrefetchContentHandler = new PrefetchContentHandler();
+    // header position of the displayed content, NO_POSITION if the adapter holds rows
+    private int mContentPosition = NO_POSITION;
+    // positions in the rows of each content left, by header position, see
+    // RowsSupportFragment.savePositions()
+    private final SparseArray<int[]> mContentPositions = new SparseArray<int[]>();
+    // prefetched fragments that were laid out invisible and still need to be hidden
+    private final ArrayList<ContentFragment> mPrefetchedContent = new ArrayList<ContentFragment>();
+    private AsyncViewInflater mAsyncViewInflater;
+    private final SharedViewPool mSharedViewPool = new SharedViewPool();
+    private final ContentHost mContentHost = new ContentHost();
+    // support fragments are not told about onTrimMemory(), the application is
+    private final ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+    private int mPrewarmViewHolderCount;
+    private final FrameMonitor mFrameMonitor = new FrameMonitor();
+    // the docks are drawn from layers while the headers or the entrance transition run
+    private final HardwareLayers mTransitionLayers = new HardwareLayers();
+    // uptime of onCreate() and of the first setAdapter(), for OnFirstFocusListener
+    private long mCreateUptimeMillis;
+    private long mAdapterUptimeMillis;
+    private OnFirstFocusListener mOnFirstFocusListener;
+    private boolean mFirstFocusReported;
+    private final ViewTreeObserver.OnPreDrawListener mFirstFocusPreDrawListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            // an empty grid holds focus itself until its first item is laid out
+            View focused = mBrowseFrame.findFocus();
+            if (focused != null && !(focused instanceof RecyclerView)
+                    && !isDescendant(getTitleView(), focused)) {
+                reportFirstFocus();
+            }
+            return true;
+        }
+    };
+    private final FrameMonitor.PhaseSampler mPhaseSampler = new FrameMonitor.PhaseSampler() {
+        @Override
+        public int samplePhases() {
+            return isRowScrolling() ? 1 << FrameMonitor.PHASE_ROW_SCROLL : 0;
+        }
+    };
+
     // transition related:
     private Object mSceneWithHeaders;
     private Object mSceneWithoutHeaders;
@@ -303,12 +532,14 @@ public class BrowseSupportFragment extends BaseSupportFragment {
      *        derive from {@link Row}.
      */
     public void setAdapter(ObjectAdapter adapter) {
+        if (mAdapterUptimeMillis == 0) {
+            mAdapterUptimeMillis = SystemClock.uptimeMillis();
+        }
         mAdapter = adapter;
-        Object firstElement = mAdapter.get(0);
+        mContentPositions.clear();
 
-        if (firstElement instanceof ListRow
-                && !(((ListRow) firstElement).getAdapter().get(0) instanceof RowsSupportFragment)
-                && !(((ListRow) firstElement).getAdapter().get(0) instanceof ContentFragment)) {
+        if (!isContentAdapter(adapter)) {
+            mContentPosition = NO_POSITION;
 
             if (mRowsSupportFragment != null && mHeadersSupportFragment != null) {
                 mHeadersSupportFragment.setAdapter(adapter);
@@ -319,9 +550,57 @@ public class BrowseSupportFragment extends BaseSupportFragment {
             if (mHeadersSupportFragment != null) {
                 mHeadersSupportFragment.setAdapter(adapter);
             }
+            mContentPosition = 0;
+
+            boolean replaceContent = clearContentCache();
+            mCurrentFragment = obtainContent((Row) adapter.get(0));
+            if (replaceContent) {
+                // the cached content belongs to the old rows, the dock is emptied at once
+                prepareContent(mCurrentFragment);
+                getChildFragmentManager().beginTransaction()
+                        .replace(R.id.browse_container_dock, (Fragment) mCurrentFragment,
+                                getContentTag(mContentPosition)).commit();
+                mContentCache.put((Row) adapter.get(0),
+                        new CachedContent(mCurrentFragment, mShowingHeaders));
+            }
+            updateContentHost();
+        }
+    }
+
+    /**
+     * Forgets the cached content, and the pending switch and prefetch of the previous
+     * adapter.
+     *
+     * @return Whether content fragments of the previous adapter are still added to the
+     *         container dock, and must be replaced.
+     */
+    private boolean clearContentCache() {
+        if (mSwitchContentRunnable.isPending()) {
+            mSwitchContentRunnable.cancel();
+            setContentPlaceholderShown(false);
+        }
+        mPrefetchContentHandler.cancel();
+        mPrefetchedContent.clear();
+        boolean added = !mContentCache.isEmpty() && isAdded()
+                && !getChildFragmentManager().isDestroyed();
+        mContentCache.clear();
+        return added;
+    }
 
-            mCurrentFragment = (ContentFragment) ((ListRow) firstElement).getAdapter().get(0);
+    /**
+     * Returns whether the headers of the adapter provide content fragments, either
+     * directly or through a {@link ContentFragmentProvider}, rather than rows.
+     */
+    private static boolean isContentAdapter(ObjectAdapter adapter) {
+        if (adapter.size() == 0 || !(adapter.get(0) instanceof ListRow)) {
+            return false;
+        }
+        ObjectAdapter rowAdapter = ((ListRow) adapter.get(0)).getAdapter();
+        if (rowAdapter.size() == 0) {
+            return false;
         }
+        Object item = rowAdapter.get(0);
+        return item instanceof ContentFragment || item instanceof ContentFragmentProvider;
     }
 
     /**
@@ -409,6 +688,123 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         mBrowseTransitionListener = listener;
     }
 
+    /**
+     * Sets a listener for the time it took to show the first focused header or item. Must
+     * be set before the fragment gets focus to be called.
+     */
+    public void setOnFirstFocusListener(OnFirstFocusListener listener) {
+        mOnFirstFocusListener = listener;
+    }
+
+    private void reportFirstFocus() {
+        mFirstFocusReported = true;
+        mBrowseFrame.getViewTreeObserver().removeOnPreDrawListener(mFirstFocusPreDrawListener);
+        if (mOnFirstFocusListener != null) {
+            long now = SystemClock.uptimeMillis();
+            mOnFirstFocusListener.onFirstFocus(now - mCreateUptimeMillis,
+                    mAdapterUptimeMillis != 0 ? now - mAdapterUptimeMillis : 0);
+        }
+    }
+
+    private static boolean isDescendant(View ancestor, View view) {
+        while (view != null) {
+            if (view == ancestor) {
+                return true;
+            }
+            view = view.getParent() instanceof View ? (View) view.getParent() : null;
+        }
+        return false;
+    }
+
+    /**
+     * Sets a listener receiving the duration and the dropped frames of every frame
+     * while this fragment is resumed, tagged with the navigation phase that was active
+     * during the frame. Measuring stops when the listener is null.
+     */
+    public void setOnFrameMetricsListener(FrameMonitor.OnFrameMetricsListener listener) {
+        mExternalFrameMetricsListener = listener;
+        updateFrameMonitor();
+    }
+
+    private boolean needsFrameMonitor() {
+        return mExternalFrameMetricsListener != null || mAdaptiveQualityEnabled;
+    }
+
+    private void updateFrameMonitor() {
+        if (!needsFrameMonitor()) {
+            mFrameMonitor.stop();
+        } else if (isResumed()) {
+            mFrameMonitor.start(getActivity());
+        }
+    }
+
+    private final FrameMonitor.OnFrameMetricsListener mFrameMetricsDispatcher =
+            new FrameMonitor.OnFrameMetricsListener() {
+        @Override
+        public void onFrameMetrics(int phase, long frameDurationNanos, int droppedFrames) {
+            if (mAdaptiveQualityEnabled) {
+                mQualityGovernor.onFrameMetrics(phase, frameDurationNanos, droppedFrames);
+                updateQualityLevel();
+            }
+            if (mExternalFrameMetricsListener != null) {
+                mExternalFrameMetricsListener.onFrameMetrics(phase, frameDurationNanos,
+                        droppedFrames);
+            }
+        }
+    };
+
+    /**
+     * Enables lowering the quality of the effects while frames keep being dropped, and
+     * raising it back once they are not anymore. Frames are measured while this fragment
+     * is resumed, and judged by the {@link #getQualityGovernor() quality governor}; each
+     * level removes more effects, see the QUALITY constants of {@link QualityGovernor}.
+     * <p>
+     * This complements {@link #setRenderingProfile(int)}, whose lite profile removes the
+     * effects whatever the frame rate. Disabled by default.
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        mAdaptiveQualityEnabled = enabled;
+        if (!enabled) {
+            mQualityGovernor.reset();
+            if (mQualityLevel != QualityGovernor.QUALITY_FULL) {
+                mQualityLevel = QualityGovernor.QUALITY_FULL;
+                applyEffects();
+            }
+        }
+        updateFrameMonitor();
+    }
+
+    /**
+     * Returns whether the quality of the effects follows the frame rate.
+     */
+    public boolean isAdaptiveQualityEnabled() {
+        return mAdaptiveQualityEnabled;
+    }
+
+    /**
+     * Returns the governor deciding the quality level when adaptive quality is enabled.
+     */
+    public QualityGovernor getQualityGovernor() {
+        return mQualityGovernor;
+    }
+
+    private void updateQualityLevel() {
+        int level = mQualityGovernor.getQualityLevel();
+        // effects are not changed under a running transition, the next frame will do
+        if (level != mQualityLevel && mHeadersTransition == null && !mInEntranceTransition) {
+            mQualityLevel = level;
+            applyEffects();
+        }
+    }
+
+    /**
+     * Returns the monitor measuring frames, which also counts the frames and dropped
+     * frames of each navigation phase.
+     */
+    public FrameMonitor getFrameMonitor() {
+        return mFrameMonitor;
+    }
+
     /**
      * Enables scaling of rows when headers are present.
      * By default enabled to increase density.
@@ -422,17 +818,255 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         }
     }
 
+    /**
+     * Sets the maximum number of content fragments that are kept alive when switching
+     * between headers, including the one being displayed. Content fragments that are
+     * not displayed are hidden rather than removed, so that coming back to a recently
+     * visited header does not inflate or bind its views again. The least recently
+     * displayed fragment is removed when the limit is exceeded, and every hidden
+     * fragment is removed when the system is running low on memory.
+     * <p>
+     * A size of 1 removes the previous fragment on every switch. The default is
+     * {@link #DEFAULT_CONTENT_CACHE_SIZE}.
+     *
+     * @param size The maximum number of content fragments to keep, at least 1.
+     */
+    public void setContentCacheSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid content cache size: " + size);
+        }
+        mContentCacheSize = size;
+        if (mContentCache.size() > getEffectiveContentCacheSize()) {
+            trimContentCache(getEffectiveContentCacheSize());
+        }
+    }
+
+    /**
+     * Returns the maximum number of content fragments that are kept alive.
+     */
+    public int getContentCacheSize() {
+        return mContentCacheSize;
+    }
+
+    private int getEffectiveContentCacheSize() {
+        return mLiteRendering ? LITE_CONTENT_CACHE_SIZE : mContentCacheSize;
+    }
+
+    /**
+     * Sets the rendering profile, one of {@link #RENDERING_PROFILE_AUTO},
+     * {@link #RENDERING_PROFILE_FULL} or {@link #RENDERING_PROFILE_LITE}.
+     * <p>
+     * The lite profile turns off row scaling, the animation of the row select levels,
+     * the fading edge of the headers, the entrance transition and the animation of the
+     * headers transitions. It also keeps a single content fragment, which disables
+     * content prefetching, and fewer views in the shared view pool. With the default,
+     * {@link #RENDERING_PROFILE_AUTO}, the lite profile is used on low-RAM devices and
+     * on devices with a small memory class.
+     * <p>
+     * The entrance transition is only skipped if the profile is set before
+     * {@link #prepareEntranceTransition()} is called, or before onCreate() if that is
+     * called earlier.
+     */
+    public void setRenderingProfile(int profile) {
+        if (profile < RENDERING_PROFILE_AUTO || profile > RENDERING_PROFILE_LITE) {
+            throw new IllegalArgumentException("Invalid rendering profile: " + profile);
+        }
+        mRenderingProfile = profile;
+        if (getActivity() != null) {
+            applyRenderingProfile();
+        }
+    }
+
+    /**
+     * Returns the rendering profile that was set, {@link #RENDERING_PROFILE_AUTO} by
+     * default.
+     */
+    public int getRenderingProfile() {
+        return mRenderingProfile;
+    }
+
+    /**
+     * Returns whether the lite rendering profile is in effect.
+     */
+    public boolean isLiteRendering() {
+        return mLiteRendering;
+    }
+
+    private boolean resolveLiteRendering() {
+        if (mRenderingProfile != RENDERING_PROFILE_AUTO) {
+            return mRenderingProfile == RENDERING_PROFILE_LITE;
+        }
+        return getActivity() != null && isLowRamDevice(getActivity());
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice()) {
+            return true;
+        }
+        return activityManager.getMemoryClass() <= LITE_MEMORY_CLASS_MB;
+    }
+
+    private void applyRenderingProfile() {
+        mLiteRendering = resolveLiteRendering();
+        mSharedViewPool.setRecycledViewsLimit(
+                mLiteRendering ? LITE_MAX_RECYCLED_VIEWS : Integer.MAX_VALUE);
+        if (mContentCache.size() > getEffectiveContentCacheSize()) {
+            trimContentCache(getEffectiveContentCacheSize());
+        }
+        applyEffects();
+    }
+
+    private boolean isRowsLiteRendering() {
+        return mLiteRendering || mQualityLevel >= QualityGovernor.QUALITY_LOW;
+    }
+
+    private boolean isFadingEdgeEnabled() {
+        return !mLiteRendering && mQualityLevel < QualityGovernor.QUALITY_MINIMAL;
+    }
+
+    // pushes the effects allowed by the rendering profile and the quality level
+    private void applyEffects() {
+        if (mHeadersSupportFragment != null) {
+            mHeadersSupportFragment.setFadingEdgeEnabled(isFadingEdgeEnabled());
+        }
+        if (mRowsSupportFragment != null) {
+            mRowsSupportFragment.setLiteRendering(isRowsLiteRendering());
+        }
+        for (CachedContent cached : mContentCache.values()) {
+            if (cached.mFragment instanceof RowsSupportFragment) {
+                ((RowsSupportFragment) cached.mFragment).setLiteRendering(isRowsLiteRendering());
+            }
+        }
+        if (getEffectivePrefetchRadius() == 0) {
+            mPrefetchContentHandler.cancel();
+        }
+    }
+
+    /**
+     * Sets how long the header selection must stay unchanged before the content
+     * fragment is switched. While the user scrolls quickly through the headers, the
+     * intermediate content fragments are never created or bound; the content dock
+     * stays empty until the selection settles, or until focus moves to the content.
+     * <p>
+     * A delay of 0, the default, switches content as soon as a header is selected.
+     *
+     * @param delayMs The delay in milliseconds, 0 or more.
+     */
+    public void setContentSwitchDelay(int delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("Invalid content switch delay: " + delayMs);
+        }
+        mContentSwitchDelay = delayMs;
+        if (mContentSwitchDelay == 0) {
+            commitPendingContentSwitch();
+        }
+    }
+
+    /**
+     * Returns the delay before content is switched after a header selection.
+     */
+    public int getContentSwitchDelay() {
+        return mContentSwitchDelay;
+    }
+
+    /**
+     * Sets how many headers above and below the selected one get their content
+     * fragment created ahead of time. Prefetching only happens while the main thread
+     * is idle, and the prefetched fragments count against the
+     * {@link #setContentCacheSize(int) content cache size}, which caps the
+     * effective radius.
+     * <p>
+     * The default is {@link #DEFAULT_CONTENT_PREFETCH_RADIUS}, 0 disables prefetching.
+     *
+     * @param radius The number of neighbouring headers on each side, 0 or more.
+     */
+    public void setContentPrefetchRadius(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Invalid content prefetch radius: " + radius);
+        }
+        mContentPrefetchRadius = radius;
+        if (getEffectivePrefetchRadius() == 0) {
+            mPrefetchContentHandler.cancel();
+        }
+    }
+
+    /**
+     * Returns how many neighbouring headers get their content created ahead of time.
+     */
+    public int getContentPrefetchRadius() {
+        return mContentPrefetchRadius;
+    }
+
+    private int getEffectivePrefetchRadius() {
+        if (mQualityLevel >= QualityGovernor.QUALITY_REDUCED) {
+            return 0;
+        }
+        return Math.min(mContentPrefetchRadius, (getEffectiveContentCacheSize() - 1) / 2);
+    }
+
+    /**
+     * Sets an inflater that inflates the view trees of this fragment, of its headers
+     * and of its rows fragments in background. Views it has not inflated yet are
+     * inflated synchronously, so the inflater only needs to be created and prefetched
+     * early enough, e.g. with {@link AsyncViewInflater#prefetchBrowseLayouts(int)}
+     * before loading the data in Activity#onCreate().
+     * <p>
+     * Must be called before the view of this fragment is created.
+     */
+    public void setAsyncViewInflater(AsyncViewInflater inflater) {
+        if (getView() != null) {
+            throw new IllegalStateException("Must be called before the view is created");
+        }
+        mAsyncViewInflater = inflater;
+    }
+
+    /**
+     * Returns the inflater used to inflate view trees in background, if any.
+     */
+    public AsyncViewInflater getAsyncViewInflater() {
+        return mAsyncViewInflater;
+    }
+
+    /**
+     * Returns the pool of item views shared by the rows of every {@link RowsSupportFragment}
+     * hosted by this fragment, e.g. to change how many views of a presenter it keeps.
+     */
+    public SharedViewPool getSharedViewPool() {
+        return mSharedViewPool;
+    }
+
+    /**
+     * Creates up to the given number of item view holders for every presenter of the
+     * rows ahead of time, in idle time after the first frame of each hosted
+     * {@link RowsSupportFragment}. The view holders go to the {@link #getSharedViewPool() shared
+     * view pool}, so they are created once for all content fragments.
+     *
+     * @param count The number of view holders per presenter, 0 to disable.
+     * @see RowsSupportFragment#prewarmViewHolders(int)
+     */
+    public void prewarmViewHolders(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid view holder count: " + count);
+        }
+        mPrewarmViewHolderCount = count;
+        if (mRowsSupportFragment != null) {
+            mRowsSupportFragment.prewarmViewHolders(count);
+        }
+        for (CachedContent cached : mContentCache.values()) {
+            if (cached.mFragment instanceof RowsSupportFragment) {
+                ((RowsSupportFragment) cached.mFragment).prewarmViewHolders(count);
+            }
+        }
+    }
+
     private void startHeadersTransitionInternal(final boolean withHeaders) {
         if (getFragmentManager().isDestroyed()) {
             return;
         }
         mShowingHeaders = withHeaders;
-        RowsSupportFragment target = null;
-        if (mRowsSupportFragment != null) {
-            target = mRowsSupportFragment;
-        } else if (mCurrentFragment instanceof RowsSupportFragment) {
-            target = (RowsSupportFragment) mCurrentFragment;
-        }
         Runnable transitionRunnable = new Runnable() {
             @Override
             public void run() {
@@ -441,6 +1075,11 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                 if (mBrowseTransitionListener != null) {
                     mBrowseTransitionListener.onHeadersTransitionStart(withHeaders);
                 }
+                if (mSceneWithHeaders == null) {
+                    createScenes();
+                }
+                mFrameMonitor.beginPhase(FrameMonitor.PHASE_HEADERS_TRANSITION);
+                addTransitionLayers();
                 sTransitionHelper.runTransition(withHeaders ? mSceneWithHeaders : mSceneWithoutHeaders,
                         mHeadersTransition);
                 if (mHeadersBackStackEnabled) {
@@ -457,85 +1096,276 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                     }
                 }
             }
-        };
-        if (target != null) {
-            target.onExpandTransitionStart(!withHeaders, transitionRunnable);
-        } else {
-            // used for custom fragments, just run the headers transition
-            transitionRunnable.run();
+        };
+        mContentHost.onExpandTransitionStart(!withHeaders, transitionRunnable);
+    }
+
+    /**
+     * The content displayed next to the headers, either the rows fragment or the content
+     * fragment of the selected header. It is resolved once each time the content changes,
+     * so that callbacks reach the grid, the focus root, the scroll state and the
+     * transition hooks of the content without finding out what kind of fragment it is.
+     */
+    private static final class ContentHost {
+        private ContentFragment mFragment;
+        private RowsSupportFragment mRows;
+        private TransitionAwareContentFragment mTransitionAware;
+
+        void resolve(ContentFragment fragment) {
+            mFragment = fragment;
+            mRows = fragment instanceof RowsSupportFragment ? (RowsSupportFragment) fragment : null;
+            mTransitionAware = mRows == null
+                    && fragment instanceof TransitionAwareContentFragment
+                    ? (TransitionAwareContentFragment) fragment : null;
+        }
+
+        ContentFragment getFragment() {
+            return mFragment;
+        }
+
+        /**
+         * Returns the content as a rows fragment, or null if it is a custom fragment.
+         */
+        RowsSupportFragment getRowsFragment() {
+            return mRows;
+        }
+
+        VerticalGridView getGridView() {
+            return mRows != null ? mRows.getVerticalGridView() : null;
+        }
+
+        View getFocusRootView() {
+            if (mRows != null) {
+                return mRows.getVerticalGridView();
+            }
+            return mFragment != null ? mFragment.getFocusRootView() : null;
+        }
+
+        /**
+         * Returns the selected row of a rows fragment, 0 for custom content.
+         */
+        int getSelectedPosition() {
+            VerticalGridView gridView = getGridView();
+            return gridView != null ? gridView.getSelectedPosition() : 0;
+        }
+
+        boolean isScrolling() {
+            return mFragment != null && mFragment.isScrolling();
+        }
+
+        boolean isRowScrolling() {
+            return mRows != null && mRows.isRowScrolling();
+        }
+
+        void onTransitionStart() {
+            if (mRows != null) {
+                mRows.onTransitionStart();
+            } else if (mTransitionAware != null) {
+                mTransitionAware.onTransitionStart();
+            }
+        }
+
+        void onTransitionEnd() {
+            if (mRows != null) {
+                mRows.onTransitionEnd();
+            } else if (mTransitionAware != null) {
+                mTransitionAware.onTransitionEnd();
+            }
+        }
+
+        /**
+         * Prepares the content for the headers transition, and runs the callback once
+         * the content is ready for the transition to start.
+         */
+        void onExpandTransitionStart(boolean expand, Runnable callback) {
+            if (mRows != null) {
+                mRows.onExpandTransitionStart(expand, callback);
+                return;
+            }
+            if (mTransitionAware != null) {
+                mTransitionAware.onTransitionStart();
+            }
+            callback.run();
+        }
+
+        void setExpand(boolean expand) {
+            if (mRows != null) {
+                mRows.setExpand(expand);
+            } else if (mTransitionAware != null) {
+                mTransitionAware.setExpand(expand);
+            }
+        }
+
+        void setEntranceTransitionState(boolean afterTransition) {
+            if (mRows != null) {
+                mRows.setEntranceTransitionState(afterTransition);
+            } else if (mTransitionAware != null) {
+                mTransitionAware.setEntranceTransitionState(afterTransition);
+            }
         }
     }
 
-    private boolean isVerticalScrolling() {
-        // don't run transition
-        boolean isScrolling = (mHeadersSupportFragment.getVerticalGridView().getScrollState()
-                != HorizontalGridView.SCROLL_STATE_IDLE);
-        if (mRowsSupportFragment != null) {
-            isScrolling = isScrolling || mRowsSupportFragment.getVerticalGridView().getScrollState()
-                    != HorizontalGridView.SCROLL_STATE_IDLE;
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof ContentFragment) {
-            isScrolling = isScrolling || mCurrentFragment.isScrolling();
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            isScrolling = isScrolling || mRowsSupportFragment.getVerticalGridView().getScrollState()
-                    != HorizontalGridView.SCROLL_STATE_IDLE;
+    private void updateContentHost() {
+        mContentHost.resolve(mRowsSupportFragment != null ? mRowsSupportFragment : mCurrentFragment);
+    }
+
+    private boolean isRowScrolling() {
+        if (mHeadersSupportFragment == null || mHeadersSupportFragment.getVerticalGridView() == null) {
+            return false;
         }
+        return isVerticalScrolling() || mContentHost.isRowScrolling();
+    }
 
-        return isScrolling;
+    private boolean isVerticalScrolling() {
+        // don't run transition
+        return mHeadersSupportFragment.getVerticalGridView().getScrollState()
+                != HorizontalGridView.SCROLL_STATE_IDLE || mContentHost.isScrolling();
     }
 
-    private final BrowseFrameLayout.OnFocusSearchListener mOnFocusSearchListener =
-            new BrowseFrameLayout.OnFocusSearchListener() {
-        @Override
-        public View onFocusSearch(View focused, int direction) {
-            // if headers is running transition,  focus stays
-            if (mCanShowHeaders && isInHeadersTransition()) {
+    /**
+     * Where focus goes when leaving the focused view in each direction, computed once
+     * for the current headers state, content and layout direction rather than on every
+     * key press. Each lookup compares that state with the one the routes were computed
+     * for, and only updates the routes when it changed.
+     */
+    private final class FocusRoutes {
+        static final int DIRECTION_LEFT = 0;
+        static final int DIRECTION_UP = 1;
+        static final int DIRECTION_RIGHT = 2;
+        static final int DIRECTION_DOWN = 3;
+
+        static final int ROUTE_NONE = 0;
+        static final int ROUTE_STAY = 1;
+        static final int ROUTE_TITLE = 2;
+        static final int ROUTE_HEADERS = 3;
+        static final int ROUTE_CONTENT = 4;
+
+        // route by direction index, and route down from the title
+        private final int[] mRoutes = new int[4];
+        private int mTitleDownRoute;
+        private View mTitleView;
+        private View mHeadersView;
+        private View mContentView;
+
+        // the state the routes were computed for
+        private boolean mValid;
+        private boolean mRoutesCanShowHeaders;
+        private boolean mRoutesShowingHeaders;
+        private int mRoutesLayoutDirection;
+        private ContentFragment mRoutesContent;
+
+        View route(View focused, int direction) {
+            int index = getDirectionIndex(direction);
+            if (index < 0) {
+                return null;
+            }
+            ensureRoutes();
+            int route = mRoutes[index];
+            if (route == ROUTE_TITLE && focused == mTitleView) {
+                route = ROUTE_NONE;
+            } else if (index == DIRECTION_DOWN && mTitleView != null && mTitleView.hasFocus()) {
+                return getRouteView(mTitleDownRoute, focused);
+            }
+            if ((route == ROUTE_HEADERS || route == ROUTE_CONTENT)
+                    && (index == DIRECTION_LEFT || index == DIRECTION_RIGHT)
+                    && isVerticalScrolling()) {
                 return focused;
             }
-            if (DEBUG) Log.v(TAG, "onFocusSearch focused " + focused + " + direction " + direction);
+            return getRouteView(route, focused);
+        }
 
-            if (getTitleView() != null && focused != getTitleView() &&
-                    direction == View.FOCUS_UP) {
-                return getTitleView();
-            }
-            if (getTitleView() != null && getTitleView().hasFocus() &&
-                    direction == View.FOCUS_DOWN) {
-                if (mCanShowHeaders && mShowingHeaders) {
-                    return mHeadersSupportFragment.getVerticalGridView();
-                } else {
-                    if (mRowsSupportFragment != null) {
-                        return mRowsSupportFragment.getVerticalGridView();
-                    } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                        return ((RowsSupportFragment) mCurrentFragment).getVerticalGridView();
-                    } else {
-                        return mCurrentFragment.getFocusRootView();
+        void invalidate() {
+            mValid = false;
+            mTitleView = null;
+            mHeadersView = null;
+            mContentView = null;
+            mRoutesContent = null;
+        }
+
+        private View getRouteView(int route, View focused) {
+            switch (route) {
+                case ROUTE_STAY:
+                    return focused;
+                case ROUTE_TITLE:
+                    return mTitleView;
+                case ROUTE_HEADERS:
+                    return mHeadersView;
+                case ROUTE_CONTENT:
+                    if (mSwitchContentRunnable.isPending()) {
+                        // a query must not switch content: the dock takes focus instead,
+                        // and commits the switch once focus really moves, see
+                        // onRequestChildFocus()
+                        return mBrowseFrame.findViewById(R.id.browse_container_dock);
                     }
-                }
+                    if (mContentView == null || mContentView.getWindowToken() == null) {
+                        // the content view was not created yet when the routes were computed
+                        mContentView = mContentHost.getFocusRootView();
+                    }
+                    return mContentView;
+                default:
+                    return null;
             }
+        }
 
-            boolean isRtl = ViewCompat.getLayoutDirection(focused) == ViewCompat.LAYOUT_DIRECTION_RTL;
-            int towardStart = isRtl ? View.FOCUS_RIGHT : View.FOCUS_LEFT;
-            int towardEnd = isRtl ? View.FOCUS_LEFT : View.FOCUS_RIGHT;
-            if (mCanShowHeaders && direction == towardStart) {
-                if (isVerticalScrolling() || mShowingHeaders) {
-                    return focused;
-                }
-                return mHeadersSupportFragment.getVerticalGridView();
-            } else if (direction == towardEnd) {
-                if (isVerticalScrolling()) {
-                    return focused;
-                }
-                if (mRowsSupportFragment != null) {
-                    return mRowsSupportFragment.getVerticalGridView();
-                } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                    return ((RowsSupportFragment) mCurrentFragment).getVerticalGridView();
-                } else {
-                    return mCurrentFragment.getFocusRootView();
-                }
-            } else {
-                return null;
+        private void ensureRoutes() {
+            int layoutDirection = ViewCompat.getLayoutDirection(mBrowseFrame);
+            if (mValid && mRoutesCanShowHeaders == mCanShowHeaders
+                    && mRoutesShowingHeaders == mShowingHeaders
+                    && mRoutesLayoutDirection == layoutDirection
+                    && mRoutesContent == mContentHost.getFragment()
+                    && mTitleView == getTitleView()) {
+                return;
             }
+            mValid = true;
+            mRoutesCanShowHeaders = mCanShowHeaders;
+            mRoutesShowingHeaders = mShowingHeaders;
+            mRoutesLayoutDirection = layoutDirection;
+            mRoutesContent = mContentHost.getFragment();
+            mTitleView = getTitleView();
+            mHeadersView = mHeadersSupportFragment.getVerticalGridView();
+            mContentView = mContentHost.getFocusRootView();
+
+            boolean isRtl = layoutDirection == ViewCompat.LAYOUT_DIRECTION_RTL;
+            int towardStart = isRtl ? DIRECTION_RIGHT : DIRECTION_LEFT;
+            int towardEnd = isRtl ? DIRECTION_LEFT : DIRECTION_RIGHT;
+            mRoutes[DIRECTION_UP] = mTitleView != null ? ROUTE_TITLE : ROUTE_NONE;
+            mRoutes[DIRECTION_DOWN] = ROUTE_NONE;
+            mRoutes[towardStart] = !mCanShowHeaders ? ROUTE_NONE
+                    : mShowingHeaders ? ROUTE_STAY : ROUTE_HEADERS;
+            mRoutes[towardEnd] = ROUTE_CONTENT;
+            mTitleDownRoute = mCanShowHeaders && mShowingHeaders ? ROUTE_HEADERS : ROUTE_CONTENT;
         }
-    };
+
+        private int getDirectionIndex(int direction) {
+            switch (direction) {
+                case View.FOCUS_LEFT:
+                    return DIRECTION_LEFT;
+                case View.FOCUS_UP:
+                    return DIRECTION_UP;
+                case View.FOCUS_RIGHT:
+                    return DIRECTION_RIGHT;
+                case View.FOCUS_DOWN:
+                    return DIRECTION_DOWN;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private final FocusRoutes mFocusRoutes = new FocusRoutes();
+
+    private final BrowseFrameLayout.OnFocusSearchListener mOnFocusSearchListener =
+            new BrowseFrameLayout.OnFocusSearchListener() {
+                @Override
+                public View onFocusSearch(View focused, int direction) {
+                    // if headers is running transition,  focus stays
+                    if (mCanShowHeaders && isInHeadersTransition()) {
+                        return focused;
+                    }
+                    if (DEBUG) Log.v(TAG, "onFocusSearch focused " + focused + " + direction " + direction);
+                    return mFocusRoutes.route(focused, direction);
+                }
+            };
 
     private final BrowseFrameLayout.OnChildFocusListener mOnChildFocusListener =
             new BrowseFrameLayout.OnChildFocusListener() {
@@ -552,14 +1382,11 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                     return true;
                 }
             }
-            if (mRowsSupportFragment != null && mRowsSupportFragment.getView() != null &&
-                    mRowsSupportFragment.getView().requestFocus(direction, previouslyFocusedRect)) {
-                return true;
-            }
-            if (mCurrentFragment != null && mCurrentFragment.getFocusRootView() != null &&
-                    mCurrentFragment.getFocusRootView().requestFocus(direction, previouslyFocusedRect)) {
-                return true;
-            }
+                    View contentRoot = mContentHost.getFocusRootView();
+                    if (contentRoot != null &&
+                            contentRoot.requestFocus(direction, previouslyFocusedRect)) {
+                        return true;
+                    }
             if (getTitleView() != null &&
                     getTitleView().requestFocus(direction, previouslyFocusedRect)) {
                 return true;
@@ -568,10 +1395,14 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         };
 
         @Override
-        public void onRequestChildFocus(View child, View focused) {
-            if (getChildFragmentManager().isDestroyed()) {
-                return;
-            }
+                public void onRequestChildFocus(View child, View focused) {
+                    if (getChildFragmentManager().isDestroyed()) {
+                        return;
+                    }
+                    if (focused == child && child.getId() == R.id.browse_container_dock) {
+                        // the dock only takes focus itself while a content switch is pending
+                        commitPendingContentSwitch();
+                    }
             if (!mCanShowHeaders || isInHeadersTransition()) return;
             int childId = child.getId();
             if (childId == R.id.browse_container_dock && mShowingHeaders) {
@@ -590,11 +1421,15 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         } else {
             outState.putBoolean(HEADER_SHOW, mShowingHeaders);
         }
+        outState.putInt(CONTENT_POSITION, mContentPosition);
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        mCreateUptimeMillis = SystemClock.uptimeMillis();
+        TraceSections.begin("BrowseSupportFragment.onCreate");
         super.onCreate(savedInstanceState);
+        getActivity().getApplication().registerComponentCallbacks(mTrimMemoryCallbacks);
         TypedArray ta = getActivity().obtainStyledAttributes(R.styleable.LeanbackTheme);
         mContainerListMarginStart = (int) ta.getDimension(
                 R.styleable.LeanbackTheme_browseRowsMarginStart, getActivity().getResources()
@@ -605,6 +1440,15 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         ta.recycle();
 
         readArguments(getArguments());
+        applyRenderingProfile();
+        if (mEntranceTransitionDeferred) {
+            mEntranceTransitionDeferred = false;
+            if (!mLiteRendering) {
+                super.prepareEntranceTransition();
+            }
+        }
+        mFrameMonitor.setPhaseSampler(mPhaseSampler);
+        mFrameMonitor.setOnFrameMetricsListener(mFrameMetricsDispatcher);
 
         if (mCanShowHeaders) {
             if (mHeadersBackStackEnabled) {
@@ -618,6 +1462,7 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                 }
             }
         }
+        TraceSections.end();
     }
 
     @Override
@@ -625,12 +1470,86 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         if (mBackStackChangedListener != null) {
             getFragmentManager().removeOnBackStackChangedListener(mBackStackChangedListener);
         }
+        if (mAsyncViewInflater != null) {
+            mAsyncViewInflater.clear();
+        }
+        getActivity().getApplication().unregisterComponentCallbacks(mTrimMemoryCallbacks);
         super.onDestroy();
     }
 
+    @Override
+    public void onDestroyView() {
+        mSwitchContentRunnable.cancel();
+        mPrefetchContentHandler.cancel();
+        mPrefetchedContent.clear();
+        mFocusRoutes.invalidate();
+        mTransitionLayers.release();
+        if (mBrowseFrame.getViewTreeObserver().isAlive()) {
+            mBrowseFrame.getViewTreeObserver().removeOnPreDrawListener(mFirstFocusPreDrawListener);
+        }
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // all of it is cheap to rebuild compared to being killed
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Releases what can be rebuilt lazily, progressively with the trim level:
+     * <ul>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_MODERATE}, views inflated in
+     * background and the pending content prefetch;</li>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}, the pooled item views;</li>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}, the cached and hidden
+     * content fragments;</li>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}, the transition scenes;</li>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND}, the states saved for rows
+     * out of the screen.</li>
+     * </ul>
+     * {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} is handled on its own, although its
+     * value is above the running levels: it reports the UI going away, not memory pressure,
+     * so the pooled views and the cached content are kept for when the user comes back.
+     * They are released from {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND}, when the
+     * process risks being killed.
+     */
+    private void trimMemory(int level) {
+        if (DEBUG) Log.v(TAG, "trimMemory " + level);
+        boolean running = level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+        boolean background = level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            mPrefetchContentHandler.cancel();
+            if (mAsyncViewInflater != null) {
+                mAsyncViewInflater.clear();
+            }
+        }
+        if ((running && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) || background) {
+            mSharedViewPool.clear();
+        }
+        if ((running && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+                || background) {
+            trimContentCache(1);
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // a running transition keeps its own scene
+            mSceneWithHeaders = null;
+            mSceneWithoutHeaders = null;
+            mSceneAfterEntranceTransition = null;
+        }
+        if (background) {
+            RowsSupportFragment rowsFragment = mContentHost.getRowsFragment();
+            if (rowsFragment != null) {
+                rowsFragment.clearSavedRowStates();
+            }
+        }
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
+        TraceSections.begin("BrowseSupportFragment.onCreateView");
         if (getChildFragmentManager().findFragmentById(R.id.browse_container_dock) == null) {
             mHeadersSupportFragment = new HeadersSupportFragment();
             if (mRowsSupportFragment== null && mCurrentFragment == null) {
@@ -641,28 +1560,55 @@ public class BrowseSupportFragment extends BaseSupportFragment {
             } else {
                 getChildFragmentManager().beginTransaction()
                         .replace(R.id.browse_headers_dock, mHeadersSupportFragment)
-                        .replace(R.id.browse_container_dock, (Fragment) mCurrentFragment).commit();
+                        .replace(R.id.browse_container_dock, (Fragment) mCurrentFragment,
+                                getContentTag(mContentPosition)).commit();
+                mContentCache.clear();
+                mContentCache.put((Row) mAdapter.get(0),
+                        new CachedContent(mCurrentFragment, mShowingHeaders));
             }
         } else {
             mHeadersSupportFragment = (HeadersSupportFragment) getChildFragmentManager()
                     .findFragmentById(R.id.browse_headers_dock);
-            Fragment fragment = getChildFragmentManager()
-                    .findFragmentById(R.id.browse_container_dock);
-            if (fragment instanceof RowsSupportFragment) {
-                mRowsSupportFragment = (RowsSupportFragment) fragment;
+            ContentFragment content = restoreContentCache(savedInstanceState != null
+                    ? savedInstanceState.getInt(CONTENT_POSITION, NO_POSITION) : mContentPosition);
+            if (content != null) {
+                mCurrentFragment = content;
             } else {
-                mCurrentFragment = (ContentFragment) fragment;
+                // only content fragments are tagged, the dock holds the rows fragment
+                mRowsSupportFragment = (RowsSupportFragment) getChildFragmentManager()
+                        .findFragmentById(R.id.browse_container_dock);
             }
         }
+        updateContentHost();
 
         mHeadersSupportFragment.setHeadersGone(!mCanShowHeaders);
+        mHeadersSupportFragment.setAsyncViewInflater(mAsyncViewInflater);
 
         if (mRowsSupportFragment != null) {
+            mRowsSupportFragment.setAsyncViewInflater(mAsyncViewInflater);
+            mRowsSupportFragment.setSharedViewPool(mSharedViewPool);
+            mRowsSupportFragment.prewarmViewHolders(mPrewarmViewHolderCount);
             mRowsSupportFragment.setAdapter(mAdapter);
             mRowsSupportFragment.enableRowScaling(mRowScaleEnabled);
+            mRowsSupportFragment.setLiteRendering(isRowsLiteRendering());
             mRowsSupportFragment.setOnItemViewSelectedListener(mRowViewSelectedListener);
             mRowsSupportFragment.setOnItemViewClickedListener(mOnItemViewClickedListener);
+        } else {
+            // the displayed content, and the hidden ones when restored
+            for (CachedContent cached : mContentCache.values()) {
+                if (cached.mFragment instanceof RowsSupportFragment) {
+                    RowsSupportFragment rowsFragment = (RowsSupportFragment) cached.mFragment;
+                    rowsFragment.setAsyncViewInflater(mAsyncViewInflater);
+                    rowsFragment.setSharedViewPool(mSharedViewPool);
+                    rowsFragment.prewarmViewHolders(mPrewarmViewHolderCount);
+                    rowsFragment.setLiteRendering(isRowsLiteRendering());
+                    // listeners are wired once, the clicked one cannot change once rows are created
+                    rowsFragment.setOnItemViewSelectedListener(mRowViewSelectedListener);
+                    rowsFragment.setOnItemViewClickedListener(mOnItemViewClickedListener);
+                }
+            }
         }
+        mHeadersSupportFragment.setFadingEdgeEnabled(isFadingEdgeEnabled());
 
         if (mHeaderPresenterSelector != null) {
             mHeadersSupportFragment.setPresenterSelector(mHeaderPresenterSelector);
@@ -671,18 +1617,31 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         mHeadersSupportFragment.setOnHeaderViewSelectedListener(mHeaderViewSelectedListener);
         mHeadersSupportFragment.setOnHeaderClickedListener(mHeaderClickedListener);
 
-        View root = inflater.inflate(R.layout.lb_browse_fragment, container, false);
+        View root = mAsyncViewInflater != null
+                ? mAsyncViewInflater.inflate(inflater, R.layout.lb_browse_fragment, container)
+                : inflater.inflate(R.layout.lb_browse_fragment, container, false);
 
         setTitleView((TitleView) root.findViewById(R.id.browse_title_group));
 
         mBrowseFrame = (BrowseFrameLayout) root.findViewById(R.id.browse_frame);
         mBrowseFrame.setOnChildFocusListener(mOnChildFocusListener);
         mBrowseFrame.setOnFocusSearchListener(mOnFocusSearchListener);
+        mBrowseFrame.findViewById(R.id.browse_container_dock)
+                .setOnFocusChangeListener(mContainerDockFocusListener);
+        if (!mFirstFocusReported) {
+            mBrowseFrame.getViewTreeObserver().addOnPreDrawListener(mFirstFocusPreDrawListener);
+        }
 
         if (mBrandColorSet) {
             mHeadersSupportFragment.setBackgroundColor(mBrandColor);
         }
 
+        createScenes();
+        TraceSections.end();
+        return root;
+    }
+
+    private void createScenes() {
         mSceneWithHeaders = sTransitionHelper.createScene(mBrowseFrame, new Runnable() {
             @Override
             public void run() {
@@ -701,13 +1660,19 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                 setEntranceTransitionEndState();
             }
         });
-        return root;
     }
 
     private void createHeadersTransition() {
         mHeadersTransition = sTransitionHelper.loadTransition(getActivity(),
                 mShowingHeaders ?
-                R.transition.lb_browse_headers_in : R.transition.lb_browse_headers_out);
+                        R.transition.lb_browse_headers_in : R.transition.lb_browse_headers_out);
+        if (mLiteRendering || mQualityLevel >= QualityGovernor.QUALITY_MINIMAL) {
+            // jumps to the end, the listener still sees the transition start and end
+            sTransitionHelper.setDuration(mHeadersTransition, 0);
+        } else if (mQualityLevel >= QualityGovernor.QUALITY_REDUCED) {
+            sTransitionHelper.setDuration(mHeadersTransition,
+                    REDUCED_HEADERS_TRANSITION_DURATION_MS);
+        }
 
         sTransitionHelper.setTransitionListener(mHeadersTransition, new TransitionListener() {
             @Override
@@ -716,11 +1681,9 @@ public class BrowseSupportFragment extends BaseSupportFragment {
             @Override
             public void onTransitionEnd(Object transition) {
                 mHeadersTransition = null;
-                if (mRowsSupportFragment != null) {
-                    mRowsSupportFragment.onTransitionEnd();
-                } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                    ((RowsSupportFragment) mCurrentFragment).onTransitionEnd();
-                }
+                mFrameMonitor.endPhase(FrameMonitor.PHASE_HEADERS_TRANSITION);
+                mTransitionLayers.release();
+                mContentHost.onTransitionEnd();
                 mHeadersSupportFragment.onTransitionEnd();
                 if (mShowingHeaders) {
                     VerticalGridView headerGridView = mHeadersSupportFragment.getVerticalGridView();
@@ -728,14 +1691,9 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                         headerGridView.requestFocus();
                     }
                 } else {
-                    VerticalGridView rowsGridView = null;
-                    if (mRowsSupportFragment != null) {
-                        rowsGridView = mRowsSupportFragment.getVerticalGridView();
-                    } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                        rowsGridView = ((RowsSupportFragment) mCurrentFragment).getVerticalGridView();
-                    }
-                    if (rowsGridView != null && !rowsGridView.hasFocus()) {
-                        rowsGridView.requestFocus();
+                    View contentRoot = mContentHost.getFocusRootView();
+                    if (contentRoot != null && !contentRoot.hasFocus()) {
+                        contentRoot.requestFocus();
                     }
                 }
                 toggleTitle();
@@ -761,31 +1719,21 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     }
 
     private void setRowsAlignedLeft(boolean alignLeft) {
-        ViewGroup.MarginLayoutParams lp;
-        View containerList;
-        if (mRowsSupportFragment != null) {
-            containerList = mRowsSupportFragment.getView();
-            lp = (ViewGroup.MarginLayoutParams) containerList.getLayoutParams();
+        ContentFragment content = mContentHost.getFragment();
+        if (content != null) {
+            setContentAlignedLeft(content, alignLeft);
+        }
+    }
+
+    private void setContentAlignedLeft(ContentFragment fragment, boolean alignLeft) {
+        View containerList = fragment.getView();
+        if (containerList == null) {
+            fragment.setExtraMargin(mContainerListAlignTop, mContainerListMarginStart);
+        } else {
+            ViewGroup.MarginLayoutParams lp =
+                    (ViewGroup.MarginLayoutParams) containerList.getLayoutParams();
             lp.setMarginStart(alignLeft ? 0 : mContainerListMarginStart);
             containerList.setLayoutParams(lp);
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            containerList = ((RowsSupportFragment) mCurrentFragment).getView();
-            if (containerList == null) {
-                mCurrentFragment.setExtraMargin(mContainerListAlignTop, mContainerListMarginStart);
-            } else {
-                lp = (ViewGroup.MarginLayoutParams) containerList.getLayoutParams();
-                lp.setMarginStart(alignLeft ? 0 : mContainerListMarginStart);
-                containerList.setLayoutParams(lp);
-            }
-        } else {
-            containerList = mCurrentFragment.getView();
-            if (containerList == null) {
-                mCurrentFragment.setExtraMargin(mContainerListAlignTop, mContainerListMarginStart);
-            } else {
-                lp = (ViewGroup.MarginLayoutParams) containerList.getLayoutParams();
-                lp.setMarginStart(alignLeft ? 0 : mContainerListMarginStart);
-                containerList.setLayoutParams(lp);
-            }
         }
     }
 
@@ -802,12 +1750,12 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         if (DEBUG) Log.v(TAG, "showHeaders " + show);
         mHeadersSupportFragment.setHeadersEnabled(show);
         setHeadersOnScreen(show);
+        showHeadersOnContent(show);
+    }
+
+    private void showHeadersOnContent(boolean show) {
         setRowsAlignedLeft(!show);
-        if (mRowsSupportFragment != null) {
-            mRowsSupportFragment.setExpand(!show);
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            ((RowsSupportFragment) mCurrentFragment).setExpand(!show);
-        }
+        mContentHost.setExpand(!show);
     }
 
     private HeadersSupportFragment.OnHeaderClickedListener mHeaderClickedListener =
@@ -817,27 +1765,27 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                 if (!mCanShowHeaders || !mShowingHeaders || isInHeadersTransition()) {
                     return;
                 }
-                startHeadersTransitionInternal(false);
-                if (mRowsSupportFragment != null) {
-                    mRowsSupportFragment.getVerticalGridView().requestFocus();
-                } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                    ((RowsSupportFragment) mCurrentFragment).getVerticalGridView().requestFocus();
-                } else {
-                    mCurrentFragment.getFocusRootView().requestFocus();
-                }
+                commitPendingContentSwitch();
+                    startHeadersTransitionInternal(false);
+                    View contentRoot = mContentHost.getFocusRootView();
+                    if (contentRoot != null) {
+                        contentRoot.requestFocus();
+                    }
             }
         };
 
     private OnItemViewSelectedListener mRowViewSelectedListener = new OnItemViewSelectedListener() {
         @Override
         public void onItemSelected(Presenter.ViewHolder itemViewHolder, Object item,
-                RowPresenter.ViewHolder rowViewHolder, Row row) {
-            int position = -1;
+                                   RowPresenter.ViewHolder rowViewHolder, Row row) {
+            if (mRowsSupportFragment == null && !isDisplayedContent(rowViewHolder)) {
+                // prefetched content selects its first row while laid out out of sight
+                return;
+            }
+            int position = mContentHost.getSelectedPosition();
             if (mRowsSupportFragment != null) {
-                position = mRowsSupportFragment.getVerticalGridView().getSelectedPosition();
                 onRowSelected(position);
-            } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-                position = ((RowsSupportFragment) mCurrentFragment).getVerticalGridView().getSelectedPosition();
+            } else {
                 toggleTitle();
             }
             if (DEBUG) Log.v(TAG, "row selected position " + position);
@@ -848,6 +1796,12 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         }
     };
 
+    private boolean isDisplayedContent(RowPresenter.ViewHolder rowViewHolder) {
+        View content = mCurrentFragment != null ? mCurrentFragment.getView() : null;
+        return content != null && rowViewHolder != null
+                && isDescendant(content, rowViewHolder.view);
+    }
+
     private HeadersSupportFragment.OnHeaderViewSelectedListener mHeaderViewSelectedListener =
             new HeadersSupportFragment.OnHeaderViewSelectedListener() {
         @Override
@@ -857,19 +1811,10 @@ public class BrowseSupportFragment extends BaseSupportFragment {
 
             // switch fragments (if needed)
             if (mRowsSupportFragment == null) {
-                ContentFragment nextFragment = (ContentFragment) ((ListRow) mAdapter.get(position)).getAdapter().get(0);
-                FragmentManager cfManager = getChildFragmentManager();
-                Fragment foundFragment = cfManager.findFragmentById(R.id.browse_container_dock);
-                if (foundFragment == null || (foundFragment instanceof ContentFragment && !foundFragment.equals(nextFragment))) {
-                    FragmentTransaction transaction = cfManager.beginTransaction();
-                    transaction.replace(R.id.browse_container_dock, (Fragment) nextFragment, nextFragment.getTag());
-                    transaction.commit();
-                    mCurrentFragment = nextFragment;
-                    if (nextFragment instanceof RowsSupportFragment) {
-                        ((RowsSupportFragment) nextFragment).setOnItemViewSelectedListener(mRowViewSelectedListener);
-                        ((RowsSupportFragment) nextFragment).setOnItemViewClickedListener(mOnItemViewClickedListener);
-                    }
-                    showHeaders(mShowingHeaders);
+                if (mContentSwitchDelay > 0) {
+                    postSwitchContent(position);
+                } else {
+                    switchContent(position);
                 }
             } else {
                 onRowSelected(position);
@@ -877,6 +1822,345 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         }
     };
 
+    private void switchContent(int position) {
+        Row row = (Row) mAdapter.get(position);
+        ContentFragment nextFragment = obtainContent(row);
+        if (nextFragment == mCurrentFragment) {
+            mPrefetchContentHandler.schedule(position);
+            return;
+        }
+        mFrameMonitor.holdPhase(FrameMonitor.PHASE_CONTENT_SWITCH);
+        saveContentPositions();
+        FragmentTransaction transaction = getChildFragmentManager().beginTransaction();
+        if (mCurrentFragment != null) {
+            CachedContent current = findCachedContent(mCurrentFragment);
+            if (current != null && getEffectiveContentCacheSize() > 1) {
+                current.mShowingHeaders = mShowingHeaders;
+                transaction.hide((Fragment) mCurrentFragment);
+            } else {
+                removeCachedContent(mCurrentFragment);
+                transaction.remove((Fragment) mCurrentFragment);
+            }
+        }
+        CachedContent next = mContentCache.get(row);
+        boolean updateLayout;
+        mCurrentFragment = nextFragment;
+        mContentPosition = position;
+        updateContentHost();
+        if (next != null && next.mFragment == nextFragment) {
+            if (DEBUG) Log.v(TAG, "switchContent cache hit " + position);
+            transaction.show((Fragment) nextFragment);
+            if (mPrefetchedContent.remove(nextFragment)) {
+                // prefetched but not hidden yet
+                nextFragment.getView().setVisibility(View.VISIBLE);
+            }
+            // a hidden fragment keeps its layout, only update it if headers moved meanwhile
+            updateLayout = next.mShowingHeaders != mShowingHeaders;
+        } else {
+            if (next != null) {
+                transaction.remove((Fragment) next.mFragment);
+            }
+            next = new CachedContent(nextFragment, mShowingHeaders);
+            mContentCache.put(row, next);
+            updateLayout = false;
+            prepareContent(nextFragment);
+            restoreContentPositions(nextFragment, position);
+            transaction.add(R.id.browse_container_dock, (Fragment) nextFragment, getContentTag(position));
+        }
+        trimContentCache(transaction, getEffectiveContentCacheSize());
+        transaction.commit();
+        if (updateLayout) {
+            next.mShowingHeaders = mShowingHeaders;
+            showHeadersOnContent(mShowingHeaders);
+        }
+        mPrefetchContentHandler.schedule(position);
+    }
+
+    private boolean prefetchContent(int position) {
+        if (position < 0 || position >= mAdapter.size()) {
+            return false;
+        }
+        Row row = (Row) mAdapter.get(position);
+        ContentFragment fragment = obtainContent(row);
+        CachedContent cached = mContentCache.get(row);
+        if (fragment == mCurrentFragment || (cached != null && cached.mFragment == fragment)) {
+            return false;
+        }
+        if (DEBUG) Log.v(TAG, "prefetching content " + position);
+        FragmentTransaction transaction = getChildFragmentManager().beginTransaction();
+        if (cached != null) {
+            transaction.remove((Fragment) cached.mFragment);
+        }
+        prepareContent(fragment);
+        restoreContentPositions(fragment, position);
+        transaction.add(R.id.browse_container_dock, (Fragment) fragment, getContentTag(position));
+        mContentCache.put(row, new CachedContent(fragment, mShowingHeaders));
+        trimContentCache(transaction, getEffectiveContentCacheSize());
+        transaction.commit();
+        getChildFragmentManager().executePendingTransactions();
+        View view = fragment.getView();
+        if (view != null) {
+            // laid out but not drawn, the fragment gets hidden on the next idle slice
+            view.setVisibility(View.INVISIBLE);
+            mPrefetchedContent.add(fragment);
+        }
+        return true;
+    }
+
+    private boolean hidePrefetchedContent() {
+        if (mPrefetchedContent.isEmpty()) {
+            return false;
+        }
+        FragmentTransaction transaction = getChildFragmentManager().beginTransaction();
+        for (int i = 0, size = mPrefetchedContent.size(); i < size; i++) {
+            transaction.hide((Fragment) mPrefetchedContent.get(i));
+        }
+        mPrefetchedContent.clear();
+        transaction.commit();
+        return true;
+    }
+
+    /**
+     * Returns the content fragment of a header, or null if its provider has not
+     * created one yet or the fragment was dropped from the cache.
+     */
+    private ContentFragment findContent(Row row) {
+        Object item = ((ListRow) row).getAdapter().get(0);
+        if (item instanceof ContentFragmentProvider) {
+            CachedContent cached = mContentCache.get(row);
+            return cached != null ? cached.mFragment : null;
+        }
+        return (ContentFragment) item;
+    }
+
+    /**
+     * Returns the content fragment of a header, asking its provider for a new one
+     * if needed.
+     */
+    private ContentFragment obtainContent(Row row) {
+        ContentFragment fragment = findContent(row);
+        if (fragment == null) {
+            ContentFragmentProvider provider =
+                    (ContentFragmentProvider) ((ListRow) row).getAdapter().get(0);
+            fragment = provider.createContentFragment(row);
+            if (fragment == null) {
+                throw new IllegalStateException("No content fragment provided for " + row);
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * Wires a content fragment that is about to be added to the container dock.
+     */
+    private void prepareContent(ContentFragment fragment) {
+        if (fragment instanceof RowsSupportFragment) {
+            RowsSupportFragment rowsFragment = (RowsSupportFragment) fragment;
+            rowsFragment.setOnItemViewSelectedListener(mRowViewSelectedListener);
+            rowsFragment.setOnItemViewClickedListener(mOnItemViewClickedListener);
+            rowsFragment.setExpand(!mShowingHeaders);
+            rowsFragment.setSharedViewPool(mSharedViewPool);
+            rowsFragment.prewarmViewHolders(mPrewarmViewHolderCount);
+            rowsFragment.setLiteRendering(isRowsLiteRendering());
+            if (mAsyncViewInflater != null && rowsFragment.getView() == null) {
+                rowsFragment.setAsyncViewInflater(mAsyncViewInflater);
+                // replaces the tree this fragment takes, for the next content to come
+                mAsyncViewInflater.prefetch(R.layout.lb_rows_fragment);
+            }
+        }
+        setContentAlignedLeft(fragment, !mShowingHeaders);
+    }
+
+    /**
+     * Remembers where the user is in the rows of the displayed content, to get back there
+     * if the content of the header has to be created again. A content that stays cached
+     * keeps its positions by itself.
+     */
+    private void saveContentPositions() {
+        RowsSupportFragment rowsFragment = mContentHost.getRowsFragment();
+        if (rowsFragment != null && mContentPosition != NO_POSITION) {
+            int[] positions = rowsFragment.savePositions();
+            if (positions != null) {
+                mContentPositions.put(mContentPosition, positions);
+            }
+        }
+    }
+
+    private void restoreContentPositions(ContentFragment fragment, int position) {
+        int[] positions = mContentPositions.get(position);
+        if (positions != null && fragment instanceof RowsSupportFragment) {
+            ((RowsSupportFragment) fragment).restorePositions(positions);
+        }
+    }
+
+    private void postSwitchContent(int position) {
+        if (findContent((Row) mAdapter.get(position)) == mCurrentFragment) {
+            // came back to the displayed header before the selection settled
+            mSwitchContentRunnable.cancel();
+            setContentPlaceholderShown(false);
+        } else {
+            setContentPlaceholderShown(true);
+            mSwitchContentRunnable.post(position);
+        }
+    }
+
+    /**
+     * Runs the pending content switch right away, e.g. because focus is about to
+     * move to the content.
+     */
+    private void commitPendingContentSwitch() {
+        if (mSwitchContentRunnable.isPending()) {
+            mSwitchContentRunnable.cancel();
+            int position = mHeadersSupportFragment.getVerticalGridView().getSelectedPosition();
+            if (position != NO_POSITION) {
+                switchContent(position);
+                getChildFragmentManager().executePendingTransactions();
+            }
+            setContentPlaceholderShown(false);
+        }
+    }
+
+    /**
+     * While a switch is pending the outdated content is hidden, leaving the empty
+     * dock as a placeholder that costs neither inflation nor binding.
+     */
+    private void setContentPlaceholderShown(boolean shown) {
+        View content = mCurrentFragment != null ? mCurrentFragment.getView() : null;
+        if (content != null) {
+            content.setVisibility(shown ? View.INVISIBLE : View.VISIBLE);
+        }
+        View dock = mBrowseFrame != null
+                ? mBrowseFrame.findViewById(R.id.browse_container_dock) : null;
+        // a focused dock hands focus to the content first, see mContainerDockFocusListener
+        if (dock != null && !dock.isFocused()) {
+            dock.setFocusable(shown);
+        }
+    }
+
+    // gives the focus the dock took while a content switch was pending to the new content
+    private final View.OnFocusChangeListener mContainerDockFocusListener =
+            new View.OnFocusChangeListener() {
+        @Override
+        public void onFocusChange(View view, boolean hasFocus) {
+            if (hasFocus) {
+                View contentRoot = mContentHost.getFocusRootView();
+                if (contentRoot != null) {
+                    contentRoot.requestFocus();
+                }
+            } else if (!mSwitchContentRunnable.isPending()) {
+                view.setFocusable(false);
+            }
+        }
+    };
+
+    private static String getContentTag(int position) {
+        return CONTENT_TAG + position;
+    }
+
+    /**
+     * Rebuilds the content cache from the content fragments restored in the container
+     * dock, found by the tags of their header positions. The fragment of the given
+     * position is displayed if it was restored, otherwise the one that was not hidden;
+     * every other fragment gets hidden, prefetched ones included.
+     *
+     * @return The displayed content fragment, or null if the dock holds no content.
+     */
+    private ContentFragment restoreContentCache(int position) {
+        FragmentManager fragmentManager = getChildFragmentManager();
+        mContentCache.clear();
+        mPrefetchedContent.clear();
+        if (mAdapter == null) {
+            Fragment fragment = fragmentManager.findFragmentById(R.id.browse_container_dock);
+            return fragment != null && fragment.getTag() != null
+                    && fragment.getTag().startsWith(CONTENT_TAG) ? (ContentFragment) fragment : null;
+        }
+        SparseArray<Fragment> restored = new SparseArray<Fragment>();
+        for (int i = 0, size = mAdapter.size(); i < size; i++) {
+            Fragment fragment = fragmentManager.findFragmentByTag(getContentTag(i));
+            if (fragment != null) {
+                restored.put(i, fragment);
+            }
+        }
+        if (restored.get(position) == null) {
+            position = NO_POSITION;
+            for (int i = 0, size = restored.size(); i < size; i++) {
+                if (!restored.valueAt(i).isHidden()) {
+                    position = restored.keyAt(i);
+                    break;
+                }
+            }
+            if (position == NO_POSITION) {
+                if (restored.size() == 0) {
+                    return null;
+                }
+                position = restored.keyAt(0);
+            }
+        }
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        for (int i = 0, size = restored.size(); i < size; i++) {
+            Fragment fragment = restored.valueAt(i);
+            if (restored.keyAt(i) == position) {
+                transaction.show(fragment);
+            } else {
+                mContentCache.put((Row) mAdapter.get(restored.keyAt(i)),
+                        new CachedContent((ContentFragment) fragment, mShowingHeaders));
+                transaction.hide(fragment);
+            }
+        }
+        transaction.commit();
+        // the displayed content is the most recently shown one
+        ContentFragment content = (ContentFragment) restored.get(position);
+        mContentCache.put((Row) mAdapter.get(position), new CachedContent(content, mShowingHeaders));
+        mContentPosition = position;
+        return content;
+    }
+
+    private CachedContent findCachedContent(ContentFragment fragment) {
+        for (CachedContent cached : mContentCache.values()) {
+            if (cached.mFragment == fragment) {
+                return cached;
+            }
+        }
+        return null;
+    }
+
+    private void removeCachedContent(ContentFragment fragment) {
+        Iterator<CachedContent> iterator = mContentCache.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mFragment == fragment) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    private void trimContentCache(int maxSize) {
+        if (!isAdded() || getChildFragmentManager().isDestroyed()) {
+            return;
+        }
+        FragmentTransaction transaction = getChildFragmentManager().beginTransaction();
+        if (trimContentCache(transaction, maxSize)) {
+            // hidden fragments hold no user visible state, losing the removal is harmless
+            transaction.commitAllowingStateLoss();
+        }
+    }
+
+    private boolean trimContentCache(FragmentTransaction transaction, int maxSize) {
+        boolean trimmed = false;
+        Iterator<CachedContent> iterator = mContentCache.values().iterator();
+        while (mContentCache.size() > maxSize && iterator.hasNext()) {
+            ContentFragment fragment = iterator.next().mFragment;
+            if (fragment != mCurrentFragment) {
+                if (DEBUG) Log.v(TAG, "evicting content " + fragment);
+                transaction.remove((Fragment) fragment);
+                mPrefetchedContent.remove(fragment);
+                iterator.remove();
+                trimmed = true;
+            }
+        }
+        return trimmed;
+    }
+
     private void onRowSelected(int position) {
         if (position != mSelectedPosition) {
             mSetSelectionRunnable.post(
@@ -910,21 +2194,31 @@ public class BrowseSupportFragment extends BaseSupportFragment {
                 position, SetSelectionRunnable.TYPE_USER_REQUEST, smooth);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (needsFrameMonitor()) {
+            mFrameMonitor.start(getActivity());
+        }
+    }
+
+    @Override
+    public void onPause() {
+        mFrameMonitor.stop();
+        super.onPause();
+    }
+
     @Override
     public void onStart() {
+        TraceSections.begin("BrowseSupportFragment.onStart");
         super.onStart();
         mHeadersSupportFragment.setWindowAlignmentFromTop(mContainerListAlignTop);
         mHeadersSupportFragment.setItemAlignment();
-        if (mRowsSupportFragment != null) {
-            mRowsSupportFragment.setWindowAlignmentFromTop(mContainerListAlignTop);
-            mRowsSupportFragment.setItemAlignment();
-            mRowsSupportFragment.setScalePivots(0, mContainerListAlignTop);
-        } else if (mCurrentFragment instanceof RowsSupportFragment) {
-            ((RowsSupportFragment) mCurrentFragment).setWindowAlignmentFromTop(mContainerListAlignTop);
-            ((RowsSupportFragment) mCurrentFragment).setItemAlignment();
-            ((RowsSupportFragment) mCurrentFragment).setScalePivots(0, mContainerListAlignTop);
-            ((RowsSupportFragment) mCurrentFragment).setOnItemViewSelectedListener(mRowViewSelectedListener);
-            ((RowsSupportFragment) mCurrentFragment).setOnItemViewClickedListener(mOnItemViewClickedListener);
+        RowsSupportFragment rowsFragment = mContentHost.getRowsFragment();
+        if (rowsFragment != null) {
+            rowsFragment.setWindowAlignmentFromTop(mContainerListAlignTop);
+            rowsFragment.setItemAlignment();
+            rowsFragment.setScalePivots(0, mContainerListAlignTop);
         } else {
             // FIXME handle custom content
         }
@@ -932,10 +2226,9 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         if (mCanShowHeaders && mShowingHeaders && mHeadersSupportFragment.getView() != null) {
             mHeadersSupportFragment.getView().requestFocus();
         } else if (!mCanShowHeaders || !mShowingHeaders) {
-            if (mRowsSupportFragment!= null && mRowsSupportFragment.getView() != null) {
-                mRowsSupportFragment.getView().requestFocus();
-            } else if (mCurrentFragment != null) {
-                mCurrentFragment.getFocusRootView().requestFocus();
+            View contentRoot = mContentHost.getFocusRootView();
+            if (contentRoot != null) {
+                contentRoot.requestFocus();
             }
         }
         if (mCanShowHeaders) {
@@ -944,6 +2237,7 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         if (isEntranceTransitionEnabled()) {
             setEntranceTransitionStartState();
         }
+        TraceSections.end();
     }
 
     /**
@@ -1025,6 +2319,23 @@ public class BrowseSupportFragment extends BaseSupportFragment {
         return mHeadersState;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Ignored with the lite rendering profile, see {@link #setRenderingProfile(int)}. With
+     * {@link #RENDERING_PROFILE_AUTO}, the device is only known once the fragment is
+     * attached: if called earlier, the transition is prepared in onCreate(), unless the
+     * lite profile is in effect then.
+     */
+    @Override
+    public void prepareEntranceTransition() {
+        if (getActivity() == null && mRenderingProfile == RENDERING_PROFILE_AUTO) {
+            mEntranceTransitionDeferred = true;
+        } else if (!resolveLiteRendering()) {
+            super.prepareEntranceTransition();
+        }
+    }
+
     @Override
     protected Object createEntranceTransition() {
         return sTransitionHelper.loadTransition(getActivity(),
@@ -1033,24 +2344,37 @@ public class BrowseSupportFragment extends BaseSupportFragment {
 
     @Override
     protected void runEntranceTransition(Object entranceTransition) {
+        // the transition itself runs on later frames, only its setup is traced
+        TraceSections.begin("BrowseSupportFragment.runEntranceTransition");
+        if (mSceneAfterEntranceTransition == null) {
+            createScenes();
+        }
         sTransitionHelper.runTransition(mSceneAfterEntranceTransition,
                 entranceTransition);
+        TraceSections.end();
     }
 
     @Override
     protected void onEntranceTransitionStart() {
+        mFrameMonitor.beginPhase(FrameMonitor.PHASE_ENTRANCE_TRANSITION);
+        mInEntranceTransition = true;
         mHeadersSupportFragment.onTransitionStart();
-        if (mRowsSupportFragment != null) {
-            mRowsSupportFragment.onTransitionEnd();
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            ((RowsSupportFragment) mCurrentFragment).onTransitionStart();
-        }
+        mContentHost.onTransitionStart();
+        addTransitionLayers();
     }
 
     @Override
     protected void onEntranceTransitionEnd() {
-        mRowsSupportFragment.onTransitionEnd();
+        mContentHost.onTransitionEnd();
         mHeadersSupportFragment.onTransitionEnd();
+        mTransitionLayers.release();
+        mInEntranceTransition = false;
+        mFrameMonitor.endPhase(FrameMonitor.PHASE_ENTRANCE_TRANSITION);
+    }
+
+    private void addTransitionLayers() {
+        mTransitionLayers.add(mBrowseFrame.findViewById(R.id.browse_headers_dock));
+        mTransitionLayers.add(mBrowseFrame.findViewById(R.id.browse_container_dock));
     }
 
     void setSearchOrbViewOnScreen(boolean onScreen) {
@@ -1063,21 +2387,13 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     void setEntranceTransitionStartState() {
         setHeadersOnScreen(false);
         setSearchOrbViewOnScreen(false);
-        if (mRowsSupportFragment != null) {
-            mRowsSupportFragment.setEntranceTransitionState(false);
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            ((RowsSupportFragment) mCurrentFragment).setEntranceTransitionState(false);
-        }
+        mContentHost.setEntranceTransitionState(false);
     }
 
     void setEntranceTransitionEndState() {
         setHeadersOnScreen(mShowingHeaders);
         setSearchOrbViewOnScreen(true);
-        if (mRowsSupportFragment != null) {
-            mRowsSupportFragment.setEntranceTransitionState(true);
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            ((RowsSupportFragment) mCurrentFragment).setEntranceTransitionState(true);
-        }
+        mContentHost.setEntranceTransitionState(true);
     }
 
     // this has been exposed to the developer, mainly to allow control over the title block
@@ -1089,12 +2405,7 @@ public class BrowseSupportFragment extends BaseSupportFragment {
     private void toggleTitle() {
         int headersPosition = mHeadersSupportFragment.getVerticalGridView().getSelectedPosition();
         headersPosition = headersPosition < 0 ? 0 : headersPosition;
-        int rowsPosition = 0;
-        if (mRowsSupportFragment != null) {
-            rowsPosition = mRowsSupportFragment.getVerticalGridView().getSelectedPosition();
-        } else if (mCurrentFragment != null && mCurrentFragment instanceof RowsSupportFragment) {
-            rowsPosition = ((RowsSupportFragment) mCurrentFragment).getVerticalGridView().getSelectedPosition();
-        }
+        int rowsPosition = mContentHost.getSelectedPosition();
         if ((!mShowingHeaders && rowsPosition == 0) ||
                 (mShowingHeaders && headersPosition == 0)) {
             showTitle(true);
@@ -30,12 +30,14 @@ import android.support.v17.leanback.widget.SinglePresenterSelector;
 import android.support.v17.leanback.widget.VerticalGridView;
 import android.support.v7.widget.RecyclerView;
 import android.util.TypedValue;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnLayoutChangeListener;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
 import com.sgottard.sofa.R;
+import com.sgottard.sofa.TraceSections;
 
 /**
  * An internal fragment containing a list of row headers.
@@ -53,6 +55,7 @@ public class HeadersSupportFragment extends BaseRowSupportFragment {
     private OnHeaderViewSelectedListener mOnHeaderViewSelectedListener;
     private OnHeaderClickedListener mOnHeaderClickedListener;
     private boolean mHeadersEnabled = true;
+    private boolean mFadingEdgeEnabled = true;
     private boolean mHeadersGone = false;
     private int mBackgroundColor;
     private boolean mBackgroundColorSet;
@@ -142,6 +145,7 @@ public class HeadersSupportFragment extends BaseRowSupportFragment {
         }
         view.setBackgroundColor(getBackgroundColor());
         updateFadingEdgeToBrandColor(getBackgroundColor());
+        updateFadingEdgeVisibility();
         updateListViewVisibility();
     }
 
@@ -197,8 +201,18 @@ public class HeadersSupportFragment extends BaseRowSupportFragment {
             return new NoOverlappingFrameLayout(root.getContext());
         }
     };
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        TraceSections.begin("HeadersSupportFragment.onCreateView");
+        View view = super.onCreateView(inflater, container, savedInstanceState);
+        TraceSections.end();
+        return view;
+    }
+
     @Override
     void updateAdapter() {
+        TraceSections.begin("HeadersSupportFragment.updateAdapter");
         super.updateAdapter();
         ItemBridgeAdapter adapter = getBridgeAdapter();
         if (adapter != null) {
@@ -208,6 +222,7 @@ public class HeadersSupportFragment extends BaseRowSupportFragment {
         if (adapter != null && getVerticalGridView() != null) {
             FocusHighlightHelper.setupHeaderItemFocusHighlight(getVerticalGridView());
         }
+        TraceSections.end();
     }
 
     void setBackgroundColor(int color) {
@@ -220,6 +235,19 @@ public class HeadersSupportFragment extends BaseRowSupportFragment {
         }
     }
 
+    void setFadingEdgeEnabled(boolean enabled) {
+        mFadingEdgeEnabled = enabled;
+        if (getView() != null) {
+            updateFadingEdgeVisibility();
+        }
+    }
+
+    private void updateFadingEdgeVisibility() {
+        // the edge is blended over the whole height of the headers on every frame
+        getView().findViewById(R.id.fade_out_edge).setVisibility(
+                mFadingEdgeEnabled ? View.VISIBLE : View.GONE);
+    }
+
     private void updateFadingEdgeToBrandColor(int backgroundColor) {
         View fadingView = getView().findViewById(R.id.fade_out_edge);
         Drawable background = fadingView.getBackground();